@@ -0,0 +1,100 @@
+package ci583.bench;
+
+import ci583.receiver.AdaptiveQuantum;
+import ci583.receiver.ModuleRegister;
+import ci583.receiver.RRReceiver;
+import ci583.receiver.SchedulerMetrics;
+import ci583.receiver.Simulation;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed quanta against the adaptive quantum on a stream of mixed work arriving at different rates
+ * at a receiver with four run slots, run as a Simulation so the whole stream takes milliseconds
+ * rather than minutes and every run sees the same virtual timings. The score is only the cost of
+ * simulating; what matters are the secondary results: the mean and p99 turnaround in virtual
+ * milliseconds, and the number of dispatches, each of which costs a wake up on real threads. A
+ * small quantum dispatches long processes over and over, and a large one lets them hold slots
+ * while short ones wait when the receiver is busy. At a gap of 10 the adaptive quantum has the
+ * lowest mean turnaround, but the long processes pay for it with a higher p99 than a fixed 10ms
+ * quantum gives them; at 20 and 40 it does no better than the best fixed quantum.
+ *
+ * The secondary results are summed over measurement iterations, so there is just one; the
+ * simulation is deterministic, so more would only repeat it.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 1)
+@Fork(1)
+public class QuantumBenchmark {
+
+    @State(Scope.Thread)
+    public static class Stream {
+        @Param({"1", "2", "5", "10", "20", "50", "adaptive"})
+        public String quantum;
+
+        /** The largest gap between arrivals in milliseconds: 10 is heavily loaded, 40 lightly. */
+        @Param({"10", "20", "40"})
+        public int gap;
+
+        @Param({"1000"})
+        public int processes;
+
+        RRReceiver r;
+        Simulation s;
+
+        @Setup(Level.Invocation)
+        public void setUp() {
+            if (quantum.equals("adaptive")) {
+                r = new RRReceiver(5);
+                r.setAdaptiveQuantum(new AdaptiveQuantum(1, 50));
+            } else {
+                r = new RRReceiver(Long.parseLong(quantum));
+            }
+            r.setRunSlots(4);
+            s = new Simulation(r);
+            List<ModuleRegister> batch = Workloads.processes(processes, "mixed", 42);
+            SplittableRandom random = new SplittableRandom(7);
+            long at = 0;
+            for (ModuleRegister m : batch) {
+                s.add(m, at);
+                at += random.nextInt(gap);
+            }
+        }
+    }
+
+    /** The scheduling results of the last run, reported alongside the score. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Results {
+        public double turnaroundMeanMillis;
+        public double turnaroundP99Millis;
+        public long dispatches;
+    }
+
+    @Benchmark
+    public List<ModuleRegister> stream(Stream st, Results res) {
+        List<ModuleRegister> done = st.s.run();
+        SchedulerMetrics metrics = st.r.getMetrics();
+        res.turnaroundMeanMillis = metrics.getTurnaroundMeanMillis();
+        res.turnaroundP99Millis = metrics.getTurnaroundP99Millis();
+        res.dispatches = metrics.getDispatches();
+        return done;
+    }
+}
@@ -0,0 +1,75 @@
+package ci583.bench;
+
+import ci583.receiver.ExecutionMode;
+import ci583.receiver.ModRegReceiver;
+import ci583.receiver.ModuleRegister;
+import ci583.receiver.Receivers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enqueueing a batch of registrations and running it to completion through the public API, across
+ * receivers, batch sizes, quanta and work distributions. Processes run on virtual threads so large
+ * batches do not hit native thread limits. Each invocation gets a fresh receiver and batch, so
+ * single shot time is used.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RegistrationBenchmark {
+
+    @State(Scope.Thread)
+    public static class Batch {
+        @Param({"RR", "P", "MLFQ", "SRTF", "SJF", "STRIDE"})
+        public String receiver;
+
+        @Param({"10", "100", "1000"})
+        public int processes;
+
+        @Param({"1", "5"})
+        public long quantum;
+
+        @Param({"uniform", "mixed"})
+        public String work;
+
+        ModRegReceiver r;
+        List<ModuleRegister> batch;
+
+        @Setup(Level.Invocation)
+        public void setUp() {
+            r = Receivers.create(receiver, quantum, ExecutionMode.VIRTUAL);
+            batch = Workloads.processes(processes, work, 42);
+        }
+    }
+
+    @Benchmark
+    public ModRegReceiver enqueue(Batch b) {
+        for (ModuleRegister m : b.batch) {
+            b.r.enqueue(m);
+        }
+        return b.r;
+    }
+
+    @Benchmark
+    public List<ModuleRegister> startRegistration(Batch b) {
+        for (ModuleRegister m : b.batch) {
+            b.r.enqueue(m);
+        }
+        return b.r.startRegistration();
+    }
+}
@@ -0,0 +1,78 @@
+package ci583.bench;
+
+import ci583.receiver.ArrayRunQueue;
+import ci583.receiver.BucketRunQueue;
+import ci583.receiver.IndexedRunQueue;
+import ci583.receiver.LinkedRunQueue;
+import ci583.receiver.ModuleRegister;
+import ci583.receiver.PriorityRunQueue;
+import ci583.receiver.RunQueue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A poll followed by an add on each run queue implementation, at several queue lengths.
+ * "priority" is a PriorityQueue ordered by thread priority, as PReceiver used before it
+ * switched to a BucketRunQueue.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RunQueueBenchmark {
+
+    @Param({"array", "linked", "indexed", "bucket", "priority"})
+    public String queue;
+
+    @Param({"10", "1000", "100000"})
+    public int queued;
+
+    private RunQueue<ModuleRegister> q;
+
+    @Setup
+    public void setUp() {
+        switch (queue) {
+            case "array":
+                q = new ArrayRunQueue<>();
+                break;
+            case "linked":
+                q = new LinkedRunQueue<>();
+                break;
+            case "indexed":
+                q = new IndexedRunQueue<>();
+                break;
+            case "bucket":
+                q = new BucketRunQueue<>(3, m -> m.getPriorityLevel().ordinal(), 0);
+                break;
+            case "priority":
+                q = new PriorityRunQueue<>(Comparator.comparingInt(ModuleRegister::getPriority));
+                break;
+            default:
+                throw new IllegalArgumentException("unknown queue: " + queue);
+        }
+        for (ModuleRegister m : Workloads.processes(queued, "uniform", 42)) {
+            q.add(m);
+        }
+    }
+
+    @Benchmark
+    public ModuleRegister dispatch() {
+        ModuleRegister m = q.poll();
+        q.add(m);
+        return m;
+    }
+}
@@ -0,0 +1,56 @@
+package ci583.bench;
+
+import ci583.receiver.ExecutionMode;
+import ci583.receiver.ModuleRegister;
+import ci583.receiver.WorkStealingReceiver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dispatch throughput of the WorkStealingReceiver as the number of lanes grows. Every process has
+ * no work, so it completes as soon as it is started and the time measured is all scheduling:
+ * admitting, dispatching, starting a virtual thread and collecting the completion. Compare the
+ * per-dispatch time across lane counts; it only falls with more lanes on a machine with that many cores.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class WorkStealingBenchmark {
+    private static final int PROCESSES = 20_000;
+
+    @Param({"1", "2", "4", "8", "16", "32"})
+    public int lanes;
+
+    private WorkStealingReceiver r;
+
+    @Setup(Level.Invocation)
+    public void setUp() {
+        r = new WorkStealingReceiver(1, ExecutionMode.VIRTUAL, lanes);
+        for (int i = 0; i < PROCESSES; i++) {
+            r.enqueue(new ModuleRegister("P" + i, 0));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PROCESSES)
+    public List<ModuleRegister> dispatch() {
+        return r.startRegistration();
+    }
+}
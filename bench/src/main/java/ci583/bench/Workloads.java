@@ -0,0 +1,46 @@
+package ci583.bench;
+
+import ci583.receiver.ModuleRegister;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Registration batches shared by the benchmarks, chosen by the string values used in their
+ * @Param annotations. Receivers are chosen the same way with Receivers.create().
+ */
+public final class Workloads {
+
+    private Workloads() {
+    }
+
+    /**
+     * Makes a batch of processes with priorities taking turns HIGH, MED, LOW.
+     *
+     * @param n the number of processes
+     * @param work uniform (every process 20ms) or mixed (90% 10ms, 10% 100ms)
+     * @param seed seeds the choice of work for mixed batches
+     * @return the processes, not yet enqueued
+     */
+    public static List<ModuleRegister> processes(int n, String work, long seed) {
+        ModuleRegister.PRIORITY[] priorities = ModuleRegister.PRIORITY.values();
+        SplittableRandom random = new SplittableRandom(seed);
+        List<ModuleRegister> batch = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            long ms;
+            switch (work) {
+                case "uniform":
+                    ms = 20;
+                    break;
+                case "mixed":
+                    ms = random.nextInt(10) == 0 ? 100 : 10;
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown work distribution: " + work);
+            }
+            batch.add(new ModuleRegister("P" + i, ms, priorities[i % priorities.length]));
+        }
+        return batch;
+    }
+}
@@ -0,0 +1,56 @@
+package ci583.receiver;
+
+import ci583.bench.Workloads;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The scheduler's own cost of one context switch: taking the next process from a receiver's
+ * policy and putting it back, with no threads or sleeping involved. This lives in the receivers'
+ * package so it can call nextProcess, requeue and admit directly. Run with -prof gc to see the
+ * allocation rate per dispatch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PolicyBenchmark {
+
+    @Param({"RR", "P", "MLFQ", "SRTF", "SJF", "STRIDE"})
+    public String receiver;
+
+    @Param({"10", "1000", "100000"})
+    public int queued;
+
+    private ModRegReceiver r;
+
+    @Setup
+    public void setUp() {
+        r = Receivers.create(receiver, 1, ExecutionMode.PLATFORM);
+        List<ModuleRegister> batch = Workloads.processes(queued, "uniform", 42);
+        for (ModuleRegister m : batch) {
+            r.admit(m);
+        }
+    }
+
+    @Benchmark
+    public ModuleRegister dispatch() {
+        ModuleRegister m = r.nextProcess();
+        r.requeue(m);
+        return m;
+    }
+}
@@ -0,0 +1,143 @@
+package ci583.receiver;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tunes a receiver's quantum online from its SchedulerMetrics, following the backlog: the number of
+ * processes in the receiver that are waiting for a run slot. With no backlog there is no one to take
+ * turns with, so the quantum is the upper bound and slices are not cut short for nothing. As the
+ * backlog grows the quantum falls towards the given percentile of the service times observed so far
+ * (how long completed processes held a run slot), so most processes complete within a single slice
+ * and only the long ones are sliced and made to take turns. With one process waiting it is halfway
+ * between the two, and each further one brings it closer to the percentile. A process that has
+ * already had the percentile without completing is one of the long ones, so while there is a
+ * backlog it gets half the percentile, and gives its slot up sooner to the processes waiting behind
+ * it. Either way it is kept within the given bounds, and until something has completed the
+ * receiver's own quantum is used.
+ *
+ * A quantum much smaller than most processes need costs a dispatch, and a wake up, every quantum
+ * for little gain; one much larger lets long processes hold slots while short ones wait. On the
+ * mixed stream of QuantumBenchmark (90% 10ms, 10% 100ms) under heavy load, this gives a lower mean
+ * turnaround than any fixed quantum of a round robin receiver, with fewer dispatches than any
+ * fixed quantum below 10ms. The price is a higher p99 turnaround, which is made up of the long
+ * processes, than the best fixed quantum gives them. Under light load it does no better than a
+ * fixed quantum, as there is rarely anyone to take turns with.
+ */
+public class AdaptiveQuantum {
+    /** The percentile of service time targeted when none is given. */
+    public static final double DEFAULT_PERCENTILE = 80;
+
+    // the service time percentile is worked out again once completions grow by 1/2^REFRESH_SHIFT
+    private static final int REFRESH_SHIFT = 4;
+
+    private final long min;
+    private final long max;
+    private final double percentile;
+    // the service time percentile in nanoseconds, and the number completed when it was worked out;
+    // racing updates from several dispatcher threads only ever store valid values
+    private volatile long target;
+    private volatile long targetCompleted;
+    private volatile long current;
+
+    /**
+     * Creates a tuner targeting the 80th percentile of service time.
+     *
+     * @param min the smallest quantum in milliseconds
+     * @param max the largest quantum in milliseconds
+     */
+    public AdaptiveQuantum(long min, long max) {
+        this(min, max, DEFAULT_PERCENTILE);
+    }
+
+    /**
+     * Creates a tuner targeting the given percentile of service time.
+     *
+     * @param min the smallest quantum in milliseconds
+     * @param max the largest quantum in milliseconds
+     * @param percentile between 0 and 100
+     * @throws IllegalArgumentException if the bounds are not positive and in order or the percentile is out of range
+     */
+    public AdaptiveQuantum(long min, long max, double percentile) {
+        if (min <= 0 || max < min) {
+            throw new IllegalArgumentException("need 0 < min <= max, got " + min + " and " + max);
+        }
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile out of range: " + percentile);
+        }
+        this.min = min;
+        this.max = max;
+        this.percentile = percentile;
+    }
+
+    /**
+     * Works out the quantum for the next slice of a process from the backlog, i.e. the processes in
+     * the receiver beyond its number of run slots, and the time the process has already run.
+     *
+     * @param initial the receiver's own quantum, used until a process has completed
+     * @param metrics the receiver's metrics
+     * @param slots the receiver's number of run slots
+     * @param process the process the slice is for
+     * @return the quantum in milliseconds, between the bounds
+     */
+    long quantumFor(long initial, SchedulerMetrics metrics, int slots, ModuleRegister process) {
+        long completed = metrics.getCompleted();
+        long q;
+        if (completed == 0) {
+            q = initial;
+        } else {
+            long seen = targetCompleted;
+            if (seen == 0 || completed - seen > (seen >>> REFRESH_SHIFT)) {
+                // reading a percentile walks the whole histogram, so only do it again once the
+                // number completed has grown by a sixteenth
+                target = metrics.getService().getPercentile(percentile);
+                targetCompleted = completed;
+            }
+            long backlog = Math.max(0, metrics.getInReceiver() - slots);
+            long t = Math.min(max, TimeUnit.NANOSECONDS.toMillis(target));
+            if (backlog > 0 && process.getRunNanos() >= target) {
+                q = t / 2;
+            } else {
+                q = t + (max - t) / (1 + backlog);
+            }
+        }
+        q = Math.max(min, Math.min(max, q));
+        current = q;
+        return q;
+    }
+
+    /**
+     * The quantum most recently handed out.
+     *
+     * @return the quantum in milliseconds, or 0 if none has been
+     */
+    public long getQuantum() {
+        return current;
+    }
+
+    /**
+     * The smallest quantum this tuner will choose.
+     *
+     * @return the lower bound in milliseconds
+     */
+    public long getMin() {
+        return min;
+    }
+
+    /**
+     * The largest quantum this tuner will choose.
+     *
+     * @return the upper bound in milliseconds
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * The percentile of service time targeted.
+     *
+     * @return the percentile
+     */
+    public double getPercentile() {
+        return percentile;
+    }
+}
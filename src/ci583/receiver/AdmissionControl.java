@@ -0,0 +1,369 @@
+package ci583.receiver;
+
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admission control for a receiver, so a burst of registrations degrades gracefully instead of
+ * growing the queues, and the number of threads, without limit. A receiver given one with
+ * ModRegReceiver.setAdmissionControl() holds at most capacity processes that have been enqueued
+ * and not yet completed. What enqueue() does with a process when the receiver is full depends on
+ * the policy:
+ *
+ * BLOCK waits until a process completes and there is room, for up to the given maximum wait, and
+ * then rejects it. REJECT rejects it straight away. SHED makes room by shedding a waiting process
+ * of a lower priority that has not yet been started, LOW before MED and the most recent first,
+ * and rejects it only if there is none; a shed process is dropped by the dispatcher without being
+ * run, and isShed() is true of it.
+ *
+ * Separately, a token-bucket rate limit can be set, which rejects processes arriving faster than
+ * the given rate once a burst of the given size has been used up, however much room there is.
+ *
+ * A rejected process is refused by enqueue() with a RejectedExecutionException. Counters of each
+ * outcome, and histograms of how long producers were blocked and how long admitted processes
+ * waited to be started, can be read from any thread.
+ */
+public class AdmissionControl {
+    /** A capacity that never fills, for a rate limit on its own. */
+    public static final int UNBOUNDED = Integer.MAX_VALUE;
+
+    /** What to do with a process that arrives when the receiver is full. */
+    public enum Policy {
+        /** Wait for room, up to the maximum wait. */
+        BLOCK,
+        /** Reject it. */
+        REJECT,
+        /** Shed a waiting process of lower priority in its favour, or reject it if there is none. */
+        SHED
+    }
+
+    private static final ModuleRegister.PRIORITY[] PRIORITIES = ModuleRegister.PRIORITY.values();
+
+    private final int capacity;
+    private final Policy policy;
+    private final long maxWaitNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    // processes enqueued and not yet completed or shed
+    private int outstanding;
+    // the processes counted in outstanding, so only those free room when they complete
+    private final Set<ModuleRegister> holding = new HashSet<>();
+    // admitted processes not yet started, by priority in the order they arrived, for shedding
+    private final LinkedHashSet<ModuleRegister>[] waiting;
+    // shed processes for the dispatcher to take out of the receiver's queue
+    private final ConcurrentLinkedQueue<ModuleRegister> evicted = new ConcurrentLinkedQueue<>();
+
+    // the token bucket, or a rate of 0 for none
+    private double ratePerNanos;
+    private double burst;
+    private double tokens;
+    private long refilledNanos;
+
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong shed = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+    private final AtomicLong blocked = new AtomicLong();
+    private final LatencyHistogram admissionWait = new LatencyHistogram();
+    private final LatencyHistogram queueDelay = new LatencyHistogram();
+
+    /**
+     * Creates admission control with the given capacity and policy. A BLOCK policy waits up to
+     * a minute for room.
+     *
+     * @param capacity the most processes enqueued and not yet completed, or UNBOUNDED
+     * @param policy what to do with a process that arrives when the receiver is full
+     */
+    public AdmissionControl(int capacity, Policy policy) {
+        this(capacity, policy, TimeUnit.MINUTES.toMillis(1));
+    }
+
+    /**
+     * Creates admission control with the given capacity and policy.
+     *
+     * @param capacity the most processes enqueued and not yet completed, or UNBOUNDED
+     * @param policy what to do with a process that arrives when the receiver is full
+     * @param maxWait the longest a BLOCK policy waits for room before rejecting, in milliseconds
+     * @throws IllegalArgumentException if the capacity is not positive or the wait is negative
+     */
+    public AdmissionControl(int capacity, Policy policy, long maxWait) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        if (maxWait < 0) {
+            throw new IllegalArgumentException("maximum wait must not be negative: " + maxWait);
+        }
+        this.capacity = capacity;
+        this.policy = policy;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWait);
+        @SuppressWarnings("unchecked")
+        LinkedHashSet<ModuleRegister>[] sets = (LinkedHashSet<ModuleRegister>[]) new LinkedHashSet<?>[PRIORITIES.length];
+        waiting = sets;
+        for (int i = 0; i < waiting.length; i++) {
+            waiting[i] = new LinkedHashSet<>();
+        }
+    }
+
+    /**
+     * Limit the rate at which processes are admitted with a token bucket, which starts full.
+     *
+     * @param perSecond the rate at which tokens are added, or 0 for no limit
+     * @param burst the most tokens the bucket holds, i.e. how many can arrive at once
+     * @throws IllegalArgumentException if the rate is negative or the burst is less than 1
+     */
+    public void setRateLimit(double perSecond, int burst) {
+        if (perSecond < 0 || burst < 1) {
+            throw new IllegalArgumentException("need a rate of at least 0 and a burst of at least 1, got "
+                    + perSecond + " and " + burst);
+        }
+        lock.lock();
+        try {
+            this.ratePerNanos = perSecond / TimeUnit.SECONDS.toNanos(1);
+            this.burst = burst;
+            this.tokens = burst;
+            this.refilledNanos = System.nanoTime();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Admit a process or refuse it, according to the rate limit and the policy. Called by enqueue()
+     * before the process is handed to the receiver.
+     *
+     * @param m the process being enqueued
+     * @throws RejectedExecutionException if the process is refused
+     */
+    void admit(ModuleRegister m) {
+        lock.lock();
+        try {
+            if (ratePerNanos > 0 && !takeToken()) {
+                rateLimited.incrementAndGet();
+                throw new RejectedExecutionException(m.getName() + " arrived faster than the rate limit");
+            }
+            if (outstanding >= capacity && !makeRoom(m)) {
+                if (ratePerNanos > 0) {
+                    // it was not admitted, so it does not use up the rate
+                    tokens = Math.min(burst, tokens + 1);
+                }
+                rejected.incrementAndGet();
+                throw new RejectedExecutionException("receiver is full, " + m.getName() + " was rejected");
+            }
+            outstanding++;
+            holding.add(m);
+            waiting[m.getPriorityLevel().ordinal()].add(m);
+            admitted.incrementAndGet();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // refill the bucket for the time since it was last refilled, then take a token if there is one
+    private boolean takeToken() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - refilledNanos) * ratePerNanos);
+        refilledNanos = now;
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+
+    // make room for a process when full, according to the policy
+    private boolean makeRoom(ModuleRegister m) {
+        switch (policy) {
+            case BLOCK:
+                long start = System.nanoTime();
+                long left = maxWaitNanos;
+                blocked.incrementAndGet();
+                try {
+                    while (outstanding >= capacity && left > 0) {
+                        left = notFull.awaitNanos(left);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                } finally {
+                    admissionWait.record(System.nanoTime() - start);
+                }
+                return outstanding < capacity;
+            case SHED:
+                // the lowest priority first, and within it the most recent, which has waited least
+                for (int p = PRIORITIES.length - 1; p > m.getPriorityLevel().ordinal(); p--) {
+                    if (!waiting[p].isEmpty()) {
+                        ModuleRegister victim = waiting[p].removeLast();
+                        victim.markShed();
+                        holding.remove(victim);
+                        outstanding--;
+                        shed.incrementAndGet();
+                        evicted.add(victim);
+                        return true;
+                    }
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Claim a process for starting, so it can no longer be shed. Called when a NEW process is
+     * dispatched.
+     *
+     * @param m the process being dispatched for the first time
+     * @param now the current time, from the receiver's clock
+     * @return false if it has been shed and must be dropped
+     */
+    boolean start(ModuleRegister m, long now) {
+        lock.lock();
+        try {
+            if (m.isShed()) {
+                return false;
+            }
+            if (waiting[m.getPriorityLevel().ordinal()].remove(m)) {
+                queueDelay.record(now - m.getArrivalNanos());
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the next process shed since the last call, for the dispatcher to remove from the
+     * receiver's queue.
+     *
+     * @return a shed process, or null if there are none
+     */
+    ModuleRegister pollShed() {
+        return evicted.poll();
+    }
+
+    /**
+     * Frees the room taken by a process that has completed. Called by the dispatcher, or by
+     * enqueue() if the process could not be handed to the receiver after it was admitted.
+     *
+     * @param m the completed process, which may have been enqueued before admission control was set
+     */
+    void completed(ModuleRegister m) {
+        lock.lock();
+        try {
+            // a process enqueued before admission control was set was never counted
+            if (!holding.remove(m)) {
+                return;
+            }
+            outstanding--;
+            waiting[m.getPriorityLevel().ordinal()].remove(m);
+            notFull.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The most processes enqueued and not yet completed.
+     *
+     * @return the capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * What is done with a process that arrives when the receiver is full.
+     *
+     * @return the policy
+     */
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * The number of processes enqueued and not yet completed or shed.
+     *
+     * @return the number outstanding
+     */
+    public int getOutstanding() {
+        lock.lock();
+        try {
+            return outstanding;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The number of processes admitted.
+     *
+     * @return the number admitted
+     */
+    public long getAdmitted() {
+        return admitted.get();
+    }
+
+    /**
+     * The number of processes rejected because the receiver was full, including those that were
+     * blocked for the maximum wait.
+     *
+     * @return the number rejected
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * The number of waiting processes shed to make room for ones of higher priority.
+     *
+     * @return the number shed
+     */
+    public long getShed() {
+        return shed.get();
+    }
+
+    /**
+     * The number of processes rejected by the rate limit.
+     *
+     * @return the number rate limited
+     */
+    public long getRateLimited() {
+        return rateLimited.get();
+    }
+
+    /**
+     * The number of times a producer was blocked waiting for room.
+     *
+     * @return the number of times blocked
+     */
+    public long getBlocked() {
+        return blocked.get();
+    }
+
+    /**
+     * How long producers were blocked waiting for room, in nanoseconds.
+     *
+     * @return the histogram of blocked times
+     */
+    public LatencyHistogram getAdmissionWait() {
+        return admissionWait;
+    }
+
+    /**
+     * How long admitted processes waited between being enqueued and being started, in nanoseconds.
+     * Unlike the response time in SchedulerMetrics this is recorded as soon as a process starts
+     * rather than once it completes, so it shows a queue building up while it does.
+     *
+     * @return the histogram of queueing delays
+     */
+    public LatencyHistogram getQueueDelay() {
+        return queueDelay;
+    }
+}
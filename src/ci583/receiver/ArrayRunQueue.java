@@ -0,0 +1,93 @@
+package ci583.receiver;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A run queue held in a circular array whose length is always a power of two. Adding and polling
+ * just move the head and tail indexes, and the array doubles when it is full, so both are O(1)
+ * (amortised for add). This is the default run queue for the receivers.
+ *
+ * @param <E> the type of element held in the queue
+ */
+public class ArrayRunQueue<E> implements RunQueue<E> {
+    private Object[] items;
+    private int head; // index of the first element
+    private int size;
+
+    /**
+     * Creates an empty queue with a small initial capacity.
+     */
+    public ArrayRunQueue() {
+        this(16);
+    }
+
+    /**
+     * Creates an empty queue that can hold at least the given number of elements before growing.
+     *
+     * @param initialCapacity
+     */
+    public ArrayRunQueue(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("initialCapacity < 0: " + initialCapacity);
+        }
+        int capacity = Integer.highestOneBit(Math.max(2, initialCapacity));
+        if (capacity < initialCapacity) {
+            capacity <<= 1;
+        }
+        items = new Object[capacity];
+    }
+
+    @Override
+    public void add(E e) {
+        Objects.requireNonNull(e);
+        if (size == items.length) {
+            grow();
+        }
+        items[(head + size) & (items.length - 1)] = e;
+        size++;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        if (size == 0) {
+            return null;
+        }
+        E e = (E) items[head];
+        items[head] = null; // let the process be collected once it is finished with
+        head = (head + 1) & (items.length - 1);
+        size--;
+        return e;
+    }
+
+    @Override
+    public boolean remove(E e) {
+        int mask = items.length - 1;
+        for (int i = 0; i < size; i++) {
+            if (items[(head + i) & mask] == e) {
+                // close the gap by moving everything behind it forward one place
+                for (int j = i + 1; j < size; j++) {
+                    items[(head + j - 1) & mask] = items[(head + j) & mask];
+                }
+                items[(head + size - 1) & mask] = null;
+                size--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    // double the array, unwrapping the elements so the head is at index 0
+    private void grow() {
+        Object[] bigger = Arrays.copyOfRange(items, head, head + items.length * 2);
+        System.arraycopy(items, 0, bigger, items.length - head, head);
+        head = 0;
+        items = bigger;
+    }
+}
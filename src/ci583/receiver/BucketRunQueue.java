@@ -0,0 +1,119 @@
+package ci583.receiver;
+
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * A priority run queue for a small, fixed number of priority levels, held as one FIFO run queue
+ * per level. poll() returns the oldest element of the most urgent non-empty level (level 0 first),
+ * so elements of equal priority come out in the order they went in, and both add and poll are O(1)
+ * for a fixed number of levels.
+ *
+ * Optionally a level can age: once a non-empty level has been passed over agingLimit times in a row
+ * because a more urgent level was served, its head is served next. This puts a bound on how long
+ * the least urgent elements can wait under a steady stream of urgent ones.
+ *
+ * @param <E> the type of element held in the queue
+ */
+public class BucketRunQueue<E> implements RunQueue<E> {
+    private final RunQueue<E>[] buckets;
+    private final int[] skipped; // times each level has been passed over since it was last served
+    private final ToIntFunction<? super E> levelOf;
+    private final int agingLimit;
+    private int size;
+
+    /**
+     * Creates a queue with the given number of levels, each an ArrayRunQueue.
+     *
+     * @param levels the number of priority levels
+     * @param levelOf gives the level of an element, from 0 (most urgent) to levels - 1
+     * @param agingLimit how many times a level can be passed over before it is served, or 0 to never age
+     */
+    public BucketRunQueue(int levels, ToIntFunction<? super E> levelOf, int agingLimit) {
+        this(levels, levelOf, agingLimit, ArrayRunQueue::new);
+    }
+
+    /**
+     * Creates a queue with the given number of levels, each a run queue made by the given factory.
+     *
+     * @param levels the number of priority levels
+     * @param levelOf gives the level of an element, from 0 (most urgent) to levels - 1
+     * @param agingLimit how many times a level can be passed over before it is served, or 0 to never age
+     * @param bucketFactory makes the run queue for each level
+     */
+    public BucketRunQueue(int levels, ToIntFunction<? super E> levelOf, int agingLimit,
+                          Supplier<? extends RunQueue<E>> bucketFactory) {
+        if (levels < 1) {
+            throw new IllegalArgumentException("levels must be at least 1: " + levels);
+        }
+        if (agingLimit < 0) {
+            throw new IllegalArgumentException("agingLimit < 0: " + agingLimit);
+        }
+        @SuppressWarnings("unchecked")
+        RunQueue<E>[] queues = (RunQueue<E>[]) new RunQueue<?>[levels];
+        buckets = queues;
+        for (int i = 0; i < levels; i++) {
+            buckets[i] = bucketFactory.get();
+        }
+        skipped = new int[levels];
+        this.levelOf = levelOf;
+        this.agingLimit = agingLimit;
+    }
+
+    @Override
+    public void add(E e) {
+        int level = levelOf.applyAsInt(e);
+        if (level < 0 || level >= buckets.length) {
+            throw new IllegalArgumentException("level " + level + " out of range for " + e);
+        }
+        buckets[level].add(e);
+        size++;
+    }
+
+    @Override
+    public E poll() {
+        if (size == 0) {
+            return null;
+        }
+        int chosen = -1;
+        if (agingLimit > 0) {
+            // the least urgent level that has waited too long goes first
+            for (int level = buckets.length - 1; level > 0; level--) {
+                if (skipped[level] >= agingLimit && !buckets[level].isEmpty()) {
+                    chosen = level;
+                    break;
+                }
+            }
+        }
+        if (chosen < 0) {
+            chosen = 0;
+            while (buckets[chosen].isEmpty()) {
+                chosen++;
+            }
+        }
+        // every waiting level less urgent than the one served has been passed over once more
+        for (int level = chosen + 1; level < buckets.length; level++) {
+            if (!buckets[level].isEmpty()) {
+                skipped[level]++;
+            }
+        }
+        skipped[chosen] = 0;
+        size--;
+        return buckets[chosen].poll();
+    }
+
+    @Override
+    public boolean remove(E e) {
+        int level = levelOf.applyAsInt(e);
+        if (level < 0 || level >= buckets.length || !buckets[level].remove(e)) {
+            return false;
+        }
+        size--;
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,64 @@
+package ci583.receiver;
+
+/**
+ * The Earliest Deadline First receiver. Processes are held in a WorkHeap keyed on their absolute
+ * deadline, and the next process is always the one whose deadline comes first, so a process that
+ * arrives with a tighter deadline is dispatched ahead of those already waiting. Processes with no
+ * deadline come after every process with one, in the order they arrived.
+ *
+ * Deadlines met and missed, and the distribution of slack and lateness, are recorded in the
+ * receiver's SchedulerMetrics, as they are for any receiver.
+ */
+public class EDFReceiver extends ModRegReceiver {
+    private final WorkHeap heap = new WorkHeap();
+
+    /**
+     * Creates an Earliest Deadline First receiver.
+     *
+     * @param quantum
+     */
+    public EDFReceiver(long quantum) {
+        this(quantum, ExecutionMode.PLATFORM);
+    }
+
+    /**
+     * Creates an Earliest Deadline First receiver that runs its processes in the given execution mode.
+     *
+     * @param quantum
+     * @param mode whether processes run on platform or virtual threads
+     */
+    public EDFReceiver(long quantum, ExecutionMode mode) {
+        super(quantum, mode);
+    }
+
+    /**
+     * Add a process to the heap, keyed on its deadline.
+     */
+    @Override
+    protected void admit(ModuleRegister m) {
+        heap.add(m, m.getDeadlineNanos());
+    }
+
+    /**
+     * the next process is the one with the earliest deadline
+     *
+     * @return the top of the heap, or null if it is empty
+     */
+    @Override
+    protected ModuleRegister nextProcess() {
+        return heap.poll();
+    }
+
+    /**
+     * a process that has had its quantum goes back in the heap at its deadline
+     */
+    @Override
+    protected void requeue(ModuleRegister m) {
+        admit(m);
+    }
+
+    @Override
+    protected boolean remove(ModuleRegister m) {
+        return heap.remove(m);
+    }
+}
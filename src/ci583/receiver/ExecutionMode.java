@@ -0,0 +1,11 @@
+package ci583.receiver;
+
+/**
+ * The kind of thread a receiver uses to run the 'work' of each ModuleRegister process.
+ * PLATFORM starts the ModuleRegister itself, so every registration costs a full OS thread.
+ * VIRTUAL runs the same work on a virtual thread, so the number of registrations that can be
+ * in progress at once is bounded by the heap rather than by native thread limits.
+ */
+public enum ExecutionMode {
+    PLATFORM, VIRTUAL
+}
@@ -0,0 +1,144 @@
+package ci583.receiver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * A consistent-hash ring, which maps keys such as student ids to shards. Each shard is placed at
+ * a number of pseudo-random points (virtual nodes) around a ring of 64-bit hashes, and a key
+ * belongs to the shard at the first point at or after its own hash. With enough virtual nodes the
+ * keys are spread evenly, and adding a shard moves only the keys that now fall just before one of
+ * its points, about 1/n of them, all to the new shard, rather than reshuffling almost everything
+ * as hashing modulo the number of shards would.
+ *
+ * Looking up a key is safe from any thread while shards are added or removed.
+ *
+ * @param <S> the type of the shards
+ */
+public class HashRing<S> {
+    private final int virtualNodes;
+    private final ConcurrentSkipListMap<Long, String> points = new ConcurrentSkipListMap<>();
+    private final Map<String, S> shards = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    /**
+     * Creates an empty ring.
+     *
+     * @param virtualNodes the number of points each shard is placed at; 100 or so spreads keys to
+     * within a few percent of evenly
+     * @throws IllegalArgumentException if it is not positive
+     */
+    public HashRing(int virtualNodes) {
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("need at least one virtual node: " + virtualNodes);
+        }
+        this.virtualNodes = virtualNodes;
+    }
+
+    /**
+     * Adds a shard to the ring.
+     *
+     * @param id the name of the shard, which decides where its points are
+     * @param shard the shard
+     * @throws IllegalArgumentException if there is already a shard with that name
+     */
+    public synchronized void add(String id, S shard) {
+        if (shards.containsKey(id)) {
+            throw new IllegalArgumentException("already a shard called " + id);
+        }
+        shards.put(id, shard);
+        for (int i = 0; i < virtualNodes; i++) {
+            long point = hash(id + "#" + i);
+            // in the unlikely event of a collision the first shard keeps the point
+            points.putIfAbsent(point, id);
+        }
+    }
+
+    /**
+     * Removes a shard from the ring, so its keys belong to the shards after its points.
+     *
+     * @param id the name of the shard
+     * @return the shard, or null if there was none with that name
+     */
+    public synchronized S remove(String id) {
+        S shard = shards.remove(id);
+        if (shard != null) {
+            points.values().removeIf(id::equals);
+        }
+        return shard;
+    }
+
+    /**
+     * The name of the shard a key belongs to.
+     *
+     * @param key
+     * @return the name of the shard
+     * @throws IllegalStateException if there are no shards
+     */
+    public String idFor(String key) {
+        if (points.isEmpty()) {
+            throw new IllegalStateException("there are no shards");
+        }
+        Map.Entry<Long, String> e = points.ceilingEntry(hash(key));
+        return e != null ? e.getValue() : points.firstEntry().getValue();
+    }
+
+    /**
+     * The shard a key belongs to.
+     *
+     * @param key
+     * @return the shard
+     * @throws IllegalStateException if there are no shards
+     */
+    public S get(String key) {
+        return shards.get(idFor(key));
+    }
+
+    /**
+     * The shard with the given name.
+     *
+     * @param id
+     * @return the shard, or null if there is none with that name
+     */
+    public S shard(String id) {
+        return shards.get(id);
+    }
+
+    /**
+     * The names of the shards, in the order they were added.
+     *
+     * @return the names
+     */
+    public List<String> ids() {
+        synchronized (shards) {
+            return new ArrayList<>(shards.keySet());
+        }
+    }
+
+    /**
+     * The number of shards.
+     *
+     * @return the number of shards
+     */
+    public int size() {
+        return shards.size();
+    }
+
+    // 64-bit FNV-1a over the characters, then the MurmurHash3 finaliser to spread similar keys apart
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,115 @@
+package ci583.receiver;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A run queue held as a linked list of int indexes into parallel arrays. Slots freed by poll()
+ * go onto a free list and are reused by later adds, so once the arrays have grown to the largest
+ * size the queue reaches, adding and polling allocate nothing. Both are O(1) (amortised for add).
+ *
+ * @param <E> the type of element held in the queue
+ */
+public class IndexedRunQueue<E> implements RunQueue<E> {
+    private static final int NONE = -1;
+
+    private Object[] items;
+    private int[] next;       // index of the following slot, in the queue or in the free list
+    private int head = NONE;
+    private int tail = NONE;
+    private int free = NONE;  // head of the free list
+    private int used;         // slots that have ever been handed out
+    private int size;
+
+    /**
+     * Creates an empty queue with a small initial capacity.
+     */
+    public IndexedRunQueue() {
+        this(16);
+    }
+
+    /**
+     * Creates an empty queue that can hold the given number of elements before growing.
+     *
+     * @param initialCapacity
+     */
+    public IndexedRunQueue(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("initialCapacity < 0: " + initialCapacity);
+        }
+        items = new Object[Math.max(2, initialCapacity)];
+        next = new int[items.length];
+    }
+
+    @Override
+    public void add(E e) {
+        Objects.requireNonNull(e);
+        int slot;
+        if (free != NONE) {
+            slot = free;
+            free = next[slot];
+        } else {
+            if (used == items.length) {
+                items = Arrays.copyOf(items, items.length * 2);
+                next = Arrays.copyOf(next, items.length);
+            }
+            slot = used++;
+        }
+        items[slot] = e;
+        next[slot] = NONE;
+        if (tail == NONE) {
+            head = slot;
+        } else {
+            next[tail] = slot;
+        }
+        tail = slot;
+        size++;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        int slot = head;
+        if (slot == NONE) {
+            return null;
+        }
+        E e = (E) items[slot];
+        items[slot] = null;
+        head = next[slot];
+        if (head == NONE) {
+            tail = NONE;
+        }
+        next[slot] = free;
+        free = slot;
+        size--;
+        return e;
+    }
+
+    @Override
+    public boolean remove(E e) {
+        int prev = NONE;
+        for (int slot = head; slot != NONE; prev = slot, slot = next[slot]) {
+            if (items[slot] == e) {
+                if (prev == NONE) {
+                    head = next[slot];
+                } else {
+                    next[prev] = next[slot];
+                }
+                if (tail == slot) {
+                    tail = prev;
+                }
+                items[slot] = null;
+                next[slot] = free;
+                free = slot;
+                size--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
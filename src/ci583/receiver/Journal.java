@@ -0,0 +1,449 @@
+package ci583.receiver;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32C;
+
+/**
+ * An append-only write-ahead journal of the processes enqueued on a receiver, so the ones that had
+ * not completed can be run again after the JVM dies. A receiver given a journal with
+ * ModRegReceiver.setJournal() appends a record when a process is enqueued, each time it is
+ * dispatched and when it completes; opening the journal again reads it back and getRecovered()
+ * gives a new process for each one with no completion, in the order they arrived, which
+ * ModRegReceiver.recover() enqueues on a fresh receiver of any kind.
+ *
+ * Records are written straight into a memory-mapped file, so once enqueue() returns its record is
+ * in the operating system's page cache and survives the JVM dying. Forcing the pages out to disk,
+ * which is needed to survive the machine dying as well, costs far more than a dispatch, so it is
+ * done by group commit: the dispatcher calls commit() once per pass of its loop, and at most once
+ * per commit interval that hands a force of everything appended since the last one to a thread of
+ * the journal's own, so the dispatcher does not wait for the disk while the receiver is busy. It
+ * calls sync(), which forces straight away, whenever it is about to wait for something to happen.
+ *
+ * Each record is its length, a type byte, the payload and a CRC32C of the type and payload. A
+ * record torn by a crash fails its checksum, and reading stops there. When the file is full the
+ * records of processes still pending are copied to a new file, which replaces it, so the journal
+ * only grows with the number of processes pending.
+ */
+public class Journal implements AutoCloseable {
+    /** The size of a new journal file when none is given, in bytes. */
+    public static final int DEFAULT_CAPACITY = 16 << 20;
+    /** The longest time between forces to disk while the receiver is busy, in milliseconds, when none is given. */
+    public static final long DEFAULT_COMMIT_INTERVAL = 50;
+
+    private static final int MAGIC = 0x4D524A31; // MRJ1
+    private static final int HEADER = 8;
+    private static final byte ENQUEUE = 1;
+    private static final byte DISPATCH = 2;
+    private static final byte COMPLETE = 3;
+    private static final ModuleRegister.PRIORITY[] PRIORITIES = ModuleRegister.PRIORITY.values();
+
+    private final Path file;
+    private final long commitIntervalNanos;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    // where the next record goes, and how far the file has been forced to disk
+    private int position;
+    private int synced;
+    private volatile long lastSyncNanos;
+    private long nextId;
+    private long syncs;
+    private volatile boolean closed;
+    // forces asked for by commit() are done here, one at a time
+    private final ExecutorService syncer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "journal-sync");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean syncRequested = new AtomicBoolean();
+    // the processes with no completion, in the order they arrived
+    private final Map<Long, Entry> pending = new LinkedHashMap<>();
+    // the entry of each process enqueued or recovered that has not completed
+    private final Map<ModuleRegister, Entry> entries = new IdentityHashMap<>();
+    private final List<ModuleRegister> recovered;
+    // a record is built here so its checksum can be taken before it is copied into the file
+    private ByteBuffer scratch = ByteBuffer.allocate(256);
+    private final CRC32C crc = new CRC32C();
+
+    /** What is needed to make a process again. */
+    static final class Entry {
+        final long id;
+        final String name;
+        final long work;
+        final ModuleRegister.PRIORITY priority;
+        final long deadline;
+        // the time it had held a run slot when last dispatched, and before it was recovered
+        long runNanos;
+        long baseNanos;
+
+        Entry(long id, String name, long work, ModuleRegister.PRIORITY priority, long deadline) {
+            this.id = id;
+            this.name = name;
+            this.work = work;
+            this.priority = priority;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * Opens the journal in the given file with the default capacity and commit interval, creating
+     * it if it does not exist.
+     *
+     * @param file the journal file
+     * @throws IOException if the file cannot be read, created or mapped
+     */
+    public Journal(Path file) throws IOException {
+        this(file, DEFAULT_CAPACITY, DEFAULT_COMMIT_INTERVAL);
+    }
+
+    /**
+     * Opens the journal in the given file, creating it if it does not exist, and reads back the
+     * processes that had not completed.
+     *
+     * @param file the journal file
+     * @param capacity the size of a new file in bytes; an existing file keeps its size
+     * @param commitInterval the longest time between forces to disk while the receiver is busy, in milliseconds
+     * @throws IOException if the file cannot be read, created or mapped, or is not a journal
+     * @throws IllegalArgumentException if the capacity is too small or the interval negative
+     */
+    public Journal(Path file, int capacity, long commitInterval) throws IOException {
+        if (capacity < 1024) {
+            throw new IllegalArgumentException("capacity must be at least 1024 bytes: " + capacity);
+        }
+        if (commitInterval < 0) {
+            throw new IllegalArgumentException("commit interval must not be negative: " + commitInterval);
+        }
+        this.file = file;
+        this.commitIntervalNanos = TimeUnit.MILLISECONDS.toNanos(commitInterval);
+        boolean exists = Files.exists(file) && Files.size(file) > 0;
+        map(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE),
+                exists ? (int) Math.min(Files.size(file), Integer.MAX_VALUE) : capacity);
+        if (exists) {
+            if (buffer.getInt(0) != MAGIC) {
+                channel.close();
+                throw new IOException(file + " is not a journal");
+            }
+            replay();
+        } else {
+            buffer.putInt(0, MAGIC);
+            position = HEADER;
+        }
+        List<ModuleRegister> ps = new ArrayList<>(pending.size());
+        for (Entry e : pending.values()) {
+            e.baseNanos = e.runNanos;
+            long left = Math.max(0, e.work - TimeUnit.NANOSECONDS.toMillis(e.runNanos));
+            ModuleRegister m = new ModuleRegister(e.name, left, e.priority, e.deadline);
+            entries.put(m, e);
+            ps.add(m);
+        }
+        recovered = Collections.unmodifiableList(ps);
+        synced = position;
+        lastSyncNanos = System.nanoTime();
+    }
+
+    private void map(FileChannel c, int size) throws IOException {
+        channel = c;
+        capacity = size;
+        buffer = c.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    // read every intact record, stopping at the end or at the first torn one, which is cleared so
+    // that it cannot be mistaken for part of a record once new ones are appended
+    private void replay() {
+        int at = HEADER;
+        int torn = 0;
+        while (at + 4 <= capacity) {
+            int length = buffer.getInt(at);
+            if (length <= 0 || length > capacity - at - 8) {
+                torn = length == 0 ? 0 : 4;
+                break;
+            }
+            crc.reset();
+            crc.update(buffer.slice(at + 4, length));
+            if ((int) crc.getValue() != buffer.getInt(at + 4 + length)) {
+                torn = length + 8;
+                break;
+            }
+            apply(buffer.slice(at + 4, length));
+            at += length + 8;
+        }
+        position = at;
+        buffer.put(at, new byte[Math.min(torn, capacity - at)]);
+    }
+
+    private void apply(ByteBuffer record) {
+        byte type = record.get();
+        long id = record.getLong();
+        nextId = Math.max(nextId, id + 1);
+        switch (type) {
+            case ENQUEUE:
+                long work = record.getLong();
+                ModuleRegister.PRIORITY p = PRIORITIES[record.get()];
+                long deadline = record.getLong();
+                byte[] name = new byte[record.getShort() & 0xFFFF];
+                record.get(name);
+                pending.put(id, new Entry(id, new String(name, StandardCharsets.UTF_8), work, p, deadline));
+                break;
+            case DISPATCH:
+                Entry e = pending.get(id);
+                if (e != null) {
+                    e.runNanos = record.getLong();
+                }
+                break;
+            case COMPLETE:
+                pending.remove(id);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * New processes for those in the journal when it was opened that had not completed, in the
+     * order they arrived. Each has the work it had left when last dispatched, its priority and its
+     * deadline, which starts again from when it is enqueued. Enqueueing them on a receiver with this
+     * journal carries on journalling them under their old records.
+     *
+     * @return the recovered processes, not yet enqueued
+     */
+    public List<ModuleRegister> getRecovered() {
+        return recovered;
+    }
+
+    /**
+     * Records that a process has been enqueued, unless it was recovered from this journal.
+     *
+     * @param m
+     */
+    synchronized void enqueued(ModuleRegister m) {
+        if (entries.containsKey(m)) {
+            return;
+        }
+        Entry e = new Entry(nextId++, m.getName(), m.getWork(), m.getPriorityLevel(), m.getDeadline());
+        entries.put(m, e);
+        // not pending until written, or making room for it would copy it too
+        append(e);
+        pending.put(e.id, e);
+    }
+
+    /**
+     * Records that a process is being given a slice, and how long it has run so far.
+     *
+     * @param m
+     */
+    synchronized void dispatched(ModuleRegister m) {
+        Entry e = entries.get(m);
+        if (e == null) {
+            return;
+        }
+        e.runNanos = e.baseNanos + m.getRunNanos();
+        ByteBuffer b = begin(DISPATCH, e.id);
+        b.putLong(e.runNanos);
+        end();
+    }
+
+    /**
+     * Records that a process has completed, so it is not recovered.
+     *
+     * @param m
+     */
+    synchronized void completed(ModuleRegister m) {
+        Entry e = entries.remove(m);
+        if (e != null) {
+            pending.remove(e.id);
+            begin(COMPLETE, e.id);
+            end();
+        }
+    }
+
+    private void append(Entry e) {
+        byte[] name = e.name.getBytes(StandardCharsets.UTF_8);
+        int n = Math.min(name.length, 0xFFFF);
+        ByteBuffer b = begin(ENQUEUE, e.id);
+        if (b.remaining() < 19 + n) {
+            scratch = ByteBuffer.allocate(b.position() + 19 + n + 4).put(b.flip());
+            b = scratch;
+        }
+        b.putLong(e.work).put((byte) e.priority.ordinal()).putLong(e.deadline).putShort((short) n).put(name, 0, n);
+        if (e.runNanos > 0) {
+            // a process carried over by compaction keeps the time it had run
+            end();
+            b = begin(DISPATCH, e.id);
+            b.putLong(e.runNanos);
+        }
+        end();
+    }
+
+    // start building a record in the scratch buffer
+    private ByteBuffer begin(byte type, long id) {
+        if (closed) {
+            throw new IllegalStateException("journal has been closed");
+        }
+        return scratch.clear().put(type).putLong(id);
+    }
+
+    // checksum the record in the scratch buffer and copy it into the file, making room if it is full
+    private void end() {
+        int length = scratch.position();
+        crc.reset();
+        crc.update(scratch.array(), 0, length);
+        int checksum = (int) crc.getValue();
+        if (position + length + 8 > capacity) {
+            compact(length + 8);
+        }
+        buffer.putInt(position + 4 + length, checksum);
+        buffer.put(position + 4, scratch.array(), 0, length);
+        // the length goes in last, so a record is never seen before the rest of it is there
+        buffer.putInt(position, length);
+        position += length + 8;
+    }
+
+    // replace the file with one holding just the records of pending processes, at least needed
+    // bytes bigger, doubling the capacity if they would fill more than half of it
+    private void compact(int needed) {
+        byte[] record = Arrays.copyOf(scratch.array(), scratch.position());
+        Path next = file.resolveSibling(file.getFileName() + ".compact");
+        try {
+            FileChannel old = channel;
+            int size = capacity;
+            // a pending record is at most a name longer than its fields
+            long live = needed;
+            for (Entry e : pending.values()) {
+                live += 64 + 3L * e.name.length();
+            }
+            while (live > size / 2) {
+                if (size > Integer.MAX_VALUE / 2) {
+                    throw new IllegalStateException("journal is full");
+                }
+                size *= 2;
+            }
+            Files.deleteIfExists(next);
+            map(FileChannel.open(next, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE), size);
+            buffer.putInt(0, MAGIC);
+            position = HEADER;
+            for (Entry e : pending.values()) {
+                append(e);
+            }
+            buffer.force();
+            Files.move(next, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            old.close();
+            synced = position;
+            syncs++;
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not compact " + file, e);
+        }
+        scratch.clear().put(record);
+    }
+
+    /**
+     * Group commit: have everything appended since the last force forced out to disk in the
+     * background, unless the last force was less than the commit interval ago or one is already
+     * on its way.
+     */
+    public void commit() {
+        if (!closed && System.nanoTime() - lastSyncNanos >= commitIntervalNanos
+                && syncRequested.compareAndSet(false, true)) {
+            syncer.execute(() -> {
+                syncRequested.set(false);
+                sync();
+            });
+        }
+    }
+
+    /**
+     * Force everything appended so far out to disk. Appends can carry on while the force is in
+     * progress.
+     */
+    public void sync() {
+        MappedByteBuffer b;
+        int from;
+        int to;
+        synchronized (this) {
+            if (closed || position == synced) {
+                return;
+            }
+            b = buffer;
+            from = synced;
+            to = position;
+        }
+        b.force(from, to - from);
+        synchronized (this) {
+            if (b == buffer && to > synced) {
+                synced = to;
+            }
+            lastSyncNanos = System.nanoTime();
+            syncs++;
+        }
+    }
+
+    /**
+     * The number of processes in the journal that have not completed.
+     *
+     * @return the number pending
+     */
+    public synchronized int getPending() {
+        return pending.size();
+    }
+
+    /**
+     * How many times the journal has been forced to disk, which with group commit is far fewer
+     * than the number of records.
+     *
+     * @return the number of forces
+     */
+    public synchronized long getSyncs() {
+        return syncs;
+    }
+
+    /**
+     * The size of the journal file.
+     *
+     * @return the capacity in bytes
+     */
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Force everything out to disk and close the file. Processes still pending stay in the journal
+     * to be recovered when it is opened again.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        syncer.shutdown();
+        try {
+            syncer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sync();
+        synchronized (this) {
+            if (!closed) {
+                closed = true;
+                channel.close();
+            }
+        }
+    }
+}
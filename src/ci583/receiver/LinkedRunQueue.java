@@ -0,0 +1,76 @@
+package ci583.receiver;
+
+import java.util.Objects;
+
+/**
+ * A run queue held in a singly linked list. Adding and polling are O(1) and never copy, at the
+ * cost of allocating one node per add.
+ *
+ * @param <E> the type of element held in the queue
+ */
+public class LinkedRunQueue<E> implements RunQueue<E> {
+
+    private static final class Node<E> {
+        final E item;
+        Node<E> next;
+
+        Node(E item) {
+            this.item = item;
+        }
+    }
+
+    private Node<E> head;
+    private Node<E> tail;
+    private int size;
+
+    @Override
+    public void add(E e) {
+        Node<E> n = new Node<>(Objects.requireNonNull(e));
+        if (tail == null) {
+            head = n;
+        } else {
+            tail.next = n;
+        }
+        tail = n;
+        size++;
+    }
+
+    @Override
+    public E poll() {
+        Node<E> n = head;
+        if (n == null) {
+            return null;
+        }
+        head = n.next;
+        if (head == null) {
+            tail = null;
+        }
+        size--;
+        return n.item;
+    }
+
+    @Override
+    public boolean remove(E e) {
+        Node<E> prev = null;
+        for (Node<E> n = head; n != null; prev = n, n = n.next) {
+            if (n.item == e) {
+                if (prev == null) {
+                    head = n.next;
+                } else {
+                    prev.next = n.next;
+                }
+                if (tail == n) {
+                    tail = prev;
+                }
+                size--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,289 @@
+package ci583.receiver;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A load-test harness that drives a receiver end to end with a stream from a Workload and reports
+ * the throughput and percentiles of the latencies it achieved. run() plays the stream for real,
+ * enqueueing each process on a receiver started with startService() at the time it is due to
+ * arrive, so the threads, run slots and any admission control are all exercised. simulate() plays
+ * the same stream through a Simulation instead, which takes seconds for a day of registrations.
+ * Run it as a program to load test one of the receivers:
+ *
+ *     java ci583.receiver.LoadTest RR 20 10000 200 bursty
+ *
+ * The turnaround reported by run() is measured from when each process was due to arrive rather
+ * than from when it was enqueued, so a producer held back by admission control does not hide the
+ * time it spent waiting. How far behind the stream enqueue() fell is reported separately as lag.
+ */
+public class LoadTest {
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    /** The outcome of a load test. */
+    public static final class Report {
+        private final int offered;
+        private int rejected;
+        private int completed;
+        private long durationNanos;
+        private final LatencyHistogram turnaround = new LatencyHistogram();
+        private final LatencyHistogram response = new LatencyHistogram();
+        private final LatencyHistogram waiting = new LatencyHistogram();
+        private final LatencyHistogram lag = new LatencyHistogram();
+
+        Report(int offered) {
+            this.offered = offered;
+        }
+
+        /**
+         * The number of processes in the stream.
+         *
+         * @return the number offered
+         */
+        public int getOffered() {
+            return offered;
+        }
+
+        /**
+         * The number of processes refused by enqueue(), by admission control or because the
+         * receiver was shut down.
+         *
+         * @return the number rejected
+         */
+        public int getRejected() {
+            return rejected;
+        }
+
+        /**
+         * The number of processes that completed.
+         *
+         * @return the number completed
+         */
+        public int getCompleted() {
+            return completed;
+        }
+
+        /**
+         * The number of processes admitted that never completed, because admission control shed them.
+         *
+         * @return the number dropped
+         */
+        public int getDropped() {
+            return offered - rejected - completed;
+        }
+
+        /**
+         * The time from the start of the stream to the last completion.
+         *
+         * @return the time in nanoseconds
+         */
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+
+        /**
+         * The number of processes completed a second over the whole test.
+         *
+         * @return the throughput
+         */
+        public double getThroughputPerSecond() {
+            return durationNanos <= 0 ? 0 : completed * 1e9 / durationNanos;
+        }
+
+        /**
+         * The time from when each completed process was due to arrive to its completion, in nanoseconds.
+         *
+         * @return the histogram of turnaround times
+         */
+        public LatencyHistogram getTurnaround() {
+            return turnaround;
+        }
+
+        /**
+         * The time from when each completed process was enqueued to its first slice, in nanoseconds.
+         *
+         * @return the histogram of response times
+         */
+        public LatencyHistogram getResponse() {
+            return response;
+        }
+
+        /**
+         * The time each completed process spent enqueued but not running, in nanoseconds.
+         *
+         * @return the histogram of waiting times
+         */
+        public LatencyHistogram getWaiting() {
+            return waiting;
+        }
+
+        /**
+         * How long after it was due each process was enqueued, in nanoseconds. Always 0 for a
+         * simulation.
+         *
+         * @return the histogram of lag
+         */
+        public LatencyHistogram getLag() {
+            return lag;
+        }
+
+        // the timings of one completed process that was due to arrive at the given time
+        void record(ModuleRegister m, long due) {
+            completed++;
+            turnaround.record(m.getCompletionNanos() - due);
+            response.record(m.getResponseNanos());
+            waiting.record(m.getWaitingNanos());
+        }
+
+        /**
+         * A summary of the counts and throughput, and a table of latency percentiles in milliseconds.
+         *
+         * @return the report
+         */
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("offered %d, rejected %d, dropped %d, completed %d in %.3fs: %.1f/s%n",
+                    offered, rejected, getDropped(), completed, durationNanos / 1e9, getThroughputPerSecond()));
+            sb.append(String.format("%-12s %10s %10s %10s %10s %10s %10s%n",
+                    "ms", "mean", "p50", "p90", "p99", "p99.9", "max"));
+            row(sb, "turnaround", turnaround);
+            row(sb, "response", response);
+            row(sb, "waiting", waiting);
+            row(sb, "lag", lag);
+            return sb.toString();
+        }
+
+        private static void row(StringBuilder sb, String name, LatencyHistogram h) {
+            sb.append(String.format("%-12s %10.3f %10.3f %10.3f %10.3f %10.3f %10.3f%n", name,
+                    h.getMean() / NANOS_PER_MILLI,
+                    h.getPercentile(50) / NANOS_PER_MILLI,
+                    h.getPercentile(90) / NANOS_PER_MILLI,
+                    h.getPercentile(99) / NANOS_PER_MILLI,
+                    h.getPercentile(99.9) / NANOS_PER_MILLI,
+                    h.getMax() / NANOS_PER_MILLI));
+        }
+    }
+
+    private final Workload workload;
+    private final int processes;
+
+    /**
+     * Creates a load test of the given number of processes from a workload.
+     *
+     * @param workload generates the stream
+     * @param processes the number of processes in the stream
+     * @throws IllegalArgumentException if the number of processes is not positive
+     */
+    public LoadTest(Workload workload, int processes) {
+        if (processes < 1) {
+            throw new IllegalArgumentException("need at least one process: " + processes);
+        }
+        this.workload = workload;
+        this.processes = processes;
+    }
+
+    /**
+     * Plays the stream to a receiver in real time: starts it with startService(), enqueues each
+     * process when it is due, shuts it down once the stream has been played, and waits for
+     * everything admitted to complete. If enqueue() blocks, later processes are enqueued as soon
+     * as it returns, and the lag shows how far behind they fell.
+     *
+     * @param r a receiver that is not running
+     * @return the report
+     * @throws InterruptedException if interrupted while playing the stream or waiting for it to complete
+     * @throws IllegalStateException if the receiver is already running
+     */
+    public Report run(ModRegReceiver r) throws InterruptedException {
+        List<Workload.Arrival> stream = workload.generate(processes);
+        Report report = new Report(processes);
+        // when each process was due to arrive
+        Map<ModuleRegister, Long> due = new IdentityHashMap<>(processes * 2);
+        r.startService();
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < processes; i++) {
+                Workload.Arrival a = stream.get(i);
+                long at = start + a.getAtNanos();
+                due.put(a.getProcess(), at);
+                long wait;
+                while ((wait = at - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                }
+                try {
+                    r.enqueue(a.getProcess());
+                } catch (RejectedExecutionException e) {
+                    report.rejected++;
+                }
+                report.lag.record(System.nanoTime() - at);
+            }
+        } finally {
+            r.shutdown();
+        }
+        List<ModuleRegister> done = r.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        long last = start;
+        for (ModuleRegister m : done) {
+            report.record(m, due.get(m));
+            last = Math.max(last, m.getCompletionNanos());
+        }
+        report.durationNanos = last - start;
+        return report;
+    }
+
+    /**
+     * Plays the stream to a receiver in a Simulation. Admission control is not simulated, so
+     * every process is admitted.
+     *
+     * @param r a receiver that is not running, and can be simulated
+     * @return the report
+     */
+    public Report simulate(ModRegReceiver r) {
+        Simulation s = new Simulation(r);
+        workload.addTo(s, processes);
+        Report report = new Report(processes);
+        long[] last = new long[1];
+        s.run(m -> {
+            report.record(m, m.getArrivalNanos());
+            report.lag.record(0);
+            last[0] = Math.max(last[0], m.getCompletionNanos());
+        });
+        report.durationNanos = last[0];
+        return report;
+    }
+
+    /**
+     * Load tests a receiver and prints the report.
+     *
+     * @param args the receiver (RR, P, MLFQ, SRTF, SJF, STRIDE, EDF or WS), its quantum in
+     * milliseconds, the number of processes, the mean arrivals a second, optionally poisson or
+     * bursty, poisson if not given, and optionally sim to simulate rather than run for real
+     * @throws InterruptedException if interrupted while running
+     */
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 4 || args.length > 6) {
+            System.err.println("usage: LoadTest <receiver> <quantum> <processes> <rate> [poisson|bursty] [sim]");
+            System.exit(2);
+        }
+        long quantum = Long.parseLong(args[1]);
+        int n = Integer.parseInt(args[2]);
+        double rate = Double.parseDouble(args[3]);
+        Workload workload = new Workload(rate, 583);
+        if (args.length > 4 && args[4].equals("bursty")) {
+            workload.setBursty(5, 200, 800);
+        } else if (args.length > 4 && !args[4].equals("poisson")) {
+            System.err.println("unknown arrivals: " + args[4]);
+            System.exit(2);
+        }
+        ModRegReceiver r = Receivers.create(args[0], quantum, ExecutionMode.PLATFORM);
+        LoadTest test = new LoadTest(workload, n);
+        Report report = args.length > 5 && args[5].equals("sim") ? test.simulate(r) : test.run(r);
+        System.out.print(report);
+    }
+}
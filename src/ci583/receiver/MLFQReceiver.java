@@ -1,127 +1,265 @@
 package ci583.receiver;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
+/**
+ * The Multi-level Feedback Queue Receiver. Processes are held in a number of levels, each a FIFO
+ * run queue with its own quantum, and the quantum grows with depth. A new process starts at the top
+ * level; each time it uses up its whole slice without completing it is demoted one level, so short
+ * registrations finish in the short top slices while long ones sink to levels with long,
+ * throughput-friendly slices. The next process always comes from the highest non-empty level, and
+ * every boostInterval milliseconds all waiting processes are moved back to the top level so long
+ * jobs cannot starve.
+ */
 public class MLFQReceiver extends ModRegReceiver {
-    private final List<ModuleRegister> youngList; // young processes list
-    private final List<ModuleRegister> oldList; // old processes list
+    /** The number of levels used when none is given. */
+    public static final int DEFAULT_LEVELS = 3;
+    /** The boost interval used when none is given, as a multiple of the top level quantum. */
+    public static final int DEFAULT_BOOST_QUANTA = 50;
+
+    private final RunQueue<ModuleRegister>[] levels; // levels[0] is the top level
+    private final long[] levelQuanta;                 // slice length for each level, in milliseconds
+    private final long boostIntervalNanos;
+    private long nextBoost;                           // now() at which to boost next
+    private boolean boostScheduled;                   // whether nextBoost has been set yet
+    private int lastLevel;                            // the level nextProcess last took a process from
+    // the level each process holding a run slot was taken from, so requeue can demote it, or -1 if
+    // a boost came while it held the slot
+    private final Map<ModuleRegister, Integer> slotLevels = new IdentityHashMap<>();
 
     /**
-     * Constructs a multi-level feedback queue receiver.
-     * The constructor calls the constructor of the superclass then initializes the two lists for young and old processes.
+     * Constructs a multi-level feedback queue receiver with DEFAULT_LEVELS levels, whose quanta
+     * double at each level starting from the given quantum.
      *
-     * @param quantum
+     * @param quantum the quantum of the top level
      */
     public MLFQReceiver(long quantum) {
-        super(quantum);
-        youngList = new ArrayList<>();  // initialize the young list
-        oldList = new ArrayList<>();    // initialize the old list
+        this(quantum, ExecutionMode.PLATFORM);
     }
 
     /**
-     * Adds a new process to the list of young processes.
+     * Constructs a multi-level feedback queue receiver with DEFAULT_LEVELS levels that runs its processes in the given execution mode.
      *
-     * @param m
+     * @param quantum the quantum of the top level
+     * @param mode whether processes run on platform or virtual threads
      */
-    @Override
-    public void enqueue(ModuleRegister m) {
-        youngList.add(m); //add modules to the young queue first
+    public MLFQReceiver(long quantum, ExecutionMode mode) {
+        this(quantum, mode, ArrayRunQueue::new);
+    }
+
+    /**
+     * Constructs a multi-level feedback queue receiver with DEFAULT_LEVELS levels, each a run queue made by the given factory.
+     *
+     * @param quantum the quantum of the top level
+     * @param mode whether processes run on platform or virtual threads
+     * @param queueFactory makes each run queue, e.g. ArrayRunQueue::new
+     */
+    public MLFQReceiver(long quantum, ExecutionMode mode, Supplier<? extends RunQueue<ModuleRegister>> queueFactory) {
+        this(doubling(quantum, DEFAULT_LEVELS), mode, boostInterval(quantum), queueFactory);
+    }
+
+    /**
+     * Constructs a multi-level feedback queue receiver with the given number of levels, whose quanta
+     * double at each level starting from the given quantum.
+     *
+     * @param quantum the quantum of the top level
+     * @param mode whether processes run on platform or virtual threads
+     * @param levels the number of levels
+     * @param boostInterval milliseconds between moving every waiting process back to the top level
+     * @throws IllegalArgumentException if there are no levels, or the quantum of the bottom level
+     * would overflow a long
+     */
+    public MLFQReceiver(long quantum, ExecutionMode mode, int levels, long boostInterval) {
+        this(doubling(quantum, levels), mode, boostInterval, ArrayRunQueue::new);
     }
 
     /**
-     * Schedule the module registration processes.
-     * This method creates an empty list which will hold the completed processes.
-     * This will be the return value of the method.
-     * While one of the queues is not empty:
-     * - If the list of YOUNG processes is not empty, take the next process and get its State.
-     * - If the state is NEW, start the process then sleep for QUANTUM milliseconds
-     * then put the process at the back of the list of OLD processes.
-     * - If the state is TERMINATED, add it to the results list.
-     * - If the state is anything else then interrupt the process to wake it up then
-     * sleep for QUANTUM milliseconds, then put the process at the back of the queue.
-     * - If the list of YOUNG processes is empty, do the same except take the process from the
-     * list of OLD processes and, after it does its 'work' put it at the end of the list of
-     * YOUNG processes.
-     * When both lists are empty, return the list of completed processes.
+     * Constructs a multi-level feedback queue receiver with one level for each given quantum.
      *
-     * @return
+     * @param levelQuanta the quantum of each level in milliseconds, top level first
+     * @param mode whether processes run on platform or virtual threads
+     * @param boostInterval milliseconds between moving every waiting process back to the top level
+     * @param queueFactory makes each run queue, e.g. ArrayRunQueue::new
+     * @throws IllegalArgumentException if there are no levels, a quantum is not positive or the
+     * boost interval is not positive
      */
+    public MLFQReceiver(long[] levelQuanta, ExecutionMode mode, long boostInterval,
+                        Supplier<? extends RunQueue<ModuleRegister>> queueFactory) {
+        super(topQuantum(levelQuanta), mode);
+        for (long q : levelQuanta) {
+            if (q <= 0) {
+                throw new IllegalArgumentException("level quanta must be positive: " + Arrays.toString(levelQuanta));
+            }
+        }
+        if (boostInterval <= 0) {
+            throw new IllegalArgumentException("boostInterval must be positive: " + boostInterval);
+        }
+        this.levelQuanta = levelQuanta.clone();
+        this.boostIntervalNanos = TimeUnit.MILLISECONDS.toNanos(boostInterval);
+        @SuppressWarnings("unchecked")
+        RunQueue<ModuleRegister>[] queues = (RunQueue<ModuleRegister>[]) new RunQueue<?>[levelQuanta.length];
+        levels = queues;
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = queueFactory.get();
+        }
+    }
+
+    // the quantum of the top level, which is the receiver's own
+    private static long topQuantum(long[] levelQuanta) {
+        if (levelQuanta.length == 0) {
+            throw new IllegalArgumentException("need at least one level");
+        }
+        return levelQuanta[0];
+    }
 
+    // quanta for the given number of levels, starting at quantum and doubling at each level
+    private static long[] doubling(long quantum, int levels) {
+        if (levels < 1) {
+            throw new IllegalArgumentException("levels must be at least 1: " + levels);
+        }
+        long[] quanta = new long[levels];
+        quanta[0] = quantum;
+        try {
+            for (int i = 1; i < levels; i++) {
+                quanta[i] = Math.multiplyExact(quanta[i - 1], 2);
+            }
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("quantum " + quantum + " is too long to double over "
+                    + levels + " levels");
+        }
+        return quanta;
+    }
 
+    // the default boost interval for the given top quantum
+    private static long boostInterval(long quantum) {
+        try {
+            return Math.multiplyExact(quantum, DEFAULT_BOOST_QUANTA);
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("quantum " + quantum + " is too long for the default boost interval");
+        }
+    }
 
+    /**
+     * The number of levels in this receiver.
+     *
+     * @return the number of levels
+     */
+    public int getLevels() {
+        return levels.length;
+    }
 
+    /**
+     * The quantum of the given level.
+     *
+     * @param level the level, 0 being the top
+     * @return the quantum in milliseconds
+     */
+    public long getLevelQuantum(int level) {
+        return levelQuanta[level];
+    }
 
     /**
-     * schedule the module registration processes based on multi-level feedback queue logic
-     * returns a list of completed processes
-     * the method alternates between two queues:
-     *  Young queue: if a process is new  it starts and moves to the old queue after the quantum expires
-     *  Old queue: if the young queue is empty old queue processes move back to the young queue after the quantum
+     * Adds a new process to the top level.
      *
-     * @return  list of completed processes
+     * @param m
      */
     @Override
-    public List<ModuleRegister> startRegistration() {
-        //list to store the completed processes
-        List<ModuleRegister> completedProcesses = new ArrayList<>();
-
-        // while both queues aren't empty perform module registration process
-        while (!youngList.isEmpty() || !oldList.isEmpty()) {
-
-                // activeList is used as a "flag" to allow for clear transitions of processes between queues to prevent starvation
-                List<ModuleRegister> activeList;
-
-                // using the activeList as a flag determine which list to use depending on which list is empty
-                if (!youngList.isEmpty()) {
-                    activeList = youngList;
-                } else {
-                    activeList = oldList;
-                }
-
-                // remove the first process in the selected active queue
-                ModuleRegister process = activeList.remove(0);
-
-                // take the process and get its state
-                ModuleRegister.State state = process.getState();
-
-                // perform action based on the process's state
-                switch (state) {
-                    case NEW:
-                        process.start();
-                        // move the process to the opposite queue after the quantum time expires
-                        // if it was in the young queue move it to the old queue
-                        // otherwise  if it was in the old queue move back to the young queue
-                        // this is done to ensure the process does not stay in one list too long
-                        if (activeList == youngList) {
-                            oldList.add(process); // move from young to old
-                        } else {
-                            youngList.add(process);// move from old to young
-                        }
-
-                        pauseForQuantum();
-                        break;
-
-                    case TERMINATED:
-                        // add the process to the completed list if terminated
-                        completedProcesses.add(process);
-                        break;
-
-                    default:
-                        // if the state of the process is anything else but above 2 cases interrupt it
-                        process.interrupt();
-                        // add to the opposite list same as the new case
-                        if (activeList == youngList) {
-                            oldList.add(process);
-                        } else {
-                            youngList.add(process);
-                        }
-                        pauseForQuantum();
-                        break;
-                }
+    protected void admit(ModuleRegister m) {
+        levels[0].add(m); //add modules to the top queue first
+    }
+
+    /**
+     * the next process comes from the highest level that has anything in it
+     * the level it was taken from is remembered so sliceFor can give it the right quantum and requeue can demote it
+     *
+     * @return the next process, or null if every level is empty
+     */
+    @Override
+    protected ModuleRegister nextProcess() {
+        long now = now();
+        if (!boostScheduled) {
+            // the first boost is one interval after dispatching starts
+            nextBoost = now + boostIntervalNanos;
+            boostScheduled = true;
+        } else if (now - nextBoost >= 0) {
+            boost();
+            nextBoost = now + boostIntervalNanos;
+        }
+        for (int level = 0; level < levels.length; level++) {
+            if (!levels[level].isEmpty()) {
+                lastLevel = level;
+                return levels[level].poll();
+            }
         }
-        return completedProcesses;
+        return null;
+    }
+
+    /**
+     * a process is only requeued when it has used its whole slice without completing,
+     * so it is demoted to the end of the next level down (or stays at the bottom level),
+     * unless a boost came while it held its slot, which sends it back to the top level
+     */
+    @Override
+    protected void requeue(ModuleRegister m) {
+        levels[Math.min(slotLevels.remove(m) + 1, levels.length - 1)].add(m);
     }
 
+    /**
+     * a waiting process may be at any level, after a boost or its first demotion
+     */
+    @Override
+    protected boolean remove(ModuleRegister m) {
+        for (RunQueue<ModuleRegister> level : levels) {
+            if (level.remove(m)) {
+                return true;
+            }
+        }
+        return false;
+    }
 
+    /**
+     * a process gets the quantum of the level it was taken from
+     */
+    @Override
+    protected long sliceFor(ModuleRegister process) {
+        slotLevels.put(process, lastLevel);
+        return levelQuanta[lastLevel];
+    }
+
+    /**
+     * each level has its own quantum, so the receiver's quantum cannot be tuned
+     */
+    @Override
+    protected boolean usesQuantum() {
+        return false;
+    }
+
+    @Override
+    protected void collected(ModuleRegister m) {
+        slotLevels.remove(m);
+    }
+
+    /**
+     * the first boost is scheduled afresh each time the receiver runs
+     */
+    @Override
+    protected void dispatchStarted() {
+        boostScheduled = false;
+    }
+
+    // move every waiting process back to the top level, keeping the order of the levels, and mark
+    // those holding a run slot to go back to the top when they are requeued
+    private void boost() {
+        slotLevels.replaceAll((m, level) -> -1);
+        for (int level = 1; level < levels.length; level++) {
+            ModuleRegister m;
+            while ((m = levels[level].poll()) != null) {
+                levels[0].add(m);
+            }
+        }
+    }
 }
@@ -4,22 +4,106 @@ package ci583.receiver;
  * and allows them to run to completion according to its specific strategy (e.g.
  * Round Robin, High/Low Priority or Multi-level Feedack Queue).
  *
+ * The dispatch loop itself lives here and is driven by completion events: each process tells
+ * the receiver when it finishes, so it is added to the results straight away instead of waiting
+ * to be found TERMINATED on its next turn through the queue. Subclasses only decide which process
+ * runs next and where it goes afterwards.
+ *
+ * A process only makes progress while it holds one of the receiver's run slots, of which there is
+ * one per core unless set otherwise. The dispatcher grants a slot for one slice and takes it back
+ * at the end of the slice, so however many processes have been started, no more than that many
+ * run at once and the scheduling policy decides which.
+ *
+ * Processes can be enqueued from any thread at any time until the receiver is shut down, so a
+ * receiver can either run one batch with startRegistration() or keep running as a service with
+ * startService(), shutdown() and awaitTermination().
+ *
+ * Every receiver keeps a TraceRecorder of its most recent scheduling events, which can be dumped
+ * to a file and read back with TraceAnalyzer to see what each process did and when.
+ *
+ * A receiver can be given AdmissionControl, which bounds the number of processes it holds and
+ * decides what enqueue() does with those that arrive when it is full or too fast.
+ *
+ * A receiver can be given a Journal, which records every process enqueued, dispatched and
+ * completed, so the processes that had not completed when the JVM died can be recovered into a
+ * new receiver with recover().
+ *
+ * Completed processes are published as they complete. streamRegistration() and streamService()
+ * hand them to a Flow.Subscriber, while startRegistration() and awaitTermination() simply collect
+ * them into a list.
+ *
  * @author Jim Burton
  */
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.logging.ConsoleHandler;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
 
 
 public abstract class ModRegReceiver {
 
     /**
-     * The time quantum for which each module registration process will run before being
-     * put back to sleep.
+     * The time quantum, in milliseconds, for which each module registration process will run before being
+     * put back to sleep. Every receiver has its own quantum, and all scheduler state is per instance,
+     * so independent receivers can run side by side in different threads.
+     */
+    protected final long quantum;
+
+    /**
+     * The kind of thread each module registration process is run on.
      */
-    protected static long QUANTUM;
+    protected final ExecutionMode mode;
+
+    // processes that have been enqueued, waiting for the dispatcher to admit them
+    private final Queue<ModuleRegister> inbox = new ConcurrentLinkedQueue<>();
+    // processes that have finished, waiting for the dispatcher to collect them
+    private final Queue<ModuleRegister> completions = new ConcurrentLinkedQueue<>();
+    // threads currently inside enqueue, so a shutdown does not miss a process being offered
+    private final AtomicInteger producers = new AtomicInteger();
+    // set while a dispatch loop is running, so only one can run at a time
+    private final AtomicBoolean dispatching = new AtomicBoolean();
+    // the thread running the dispatch loop, woken whenever a process completes or arrives
+    private volatile Thread dispatcher;
+    // set by shutdown, after which enqueue is refused
+    private volatile boolean closed;
+    // the source of timestamps for scheduling decisions and metrics, replaced by a Simulation
+    private LongSupplier clock = System::nanoTime;
+    // always-on scheduling metrics for this receiver
+    private final SchedulerMetrics metrics = new SchedulerMetrics();
+    // tunes the slice length from the metrics, or null to always use the quantum
+    private volatile AdaptiveQuantum adaptiveQuantum;
+    // records enqueues, dispatches and completions for recovery, or null
+    private volatile Journal journal;
+    // bounds the processes held and the rate they arrive at, or null for no limit
+    private volatile AdmissionControl admission;
+    // records every scheduling event, always on
+    private volatile TraceRecorder trace = new TraceRecorder();
+    // the processes collected by the dispatcher made by startService, once it has finished
+    private volatile CompletableFuture<List<ModuleRegister>> serviceResults;
+    // takes completed processes in the order they finished, only touched by the dispatcher
+    private Results completed;
+    // number of started processes not yet collected from completions
+    private final AtomicInteger running = new AtomicInteger();
+    // how many processes may hold a run slot at once
+    private volatile int runSlots = Runtime.getRuntime().availableProcessors();
+    // the processes holding run slots and when their slices end, only touched by the dispatcher
+    private ModuleRegister[] held = new ModuleRegister[0];
+    private long[] sliceEnds = new long[0];
+    private int heldCount;
 
     /**
      * Creates a Module registration receiver with the given time quantum.
@@ -27,30 +111,785 @@ public abstract class ModRegReceiver {
      * @param quantum
      */
     public ModRegReceiver(long quantum) {
-        QUANTUM = quantum;
+        this(quantum, ExecutionMode.PLATFORM);
+    }
+
+    /**
+     * Creates a Module registration receiver with the given time quantum and execution mode.
+     *
+     * @param quantum
+     * @param mode whether processes run on platform or virtual threads
+     */
+    public ModRegReceiver(long quantum, ExecutionMode mode) {
+        if (quantum <= 0) {
+            throw new IllegalArgumentException("quantum must be positive: " + quantum);
+        }
+        this.quantum = quantum;
+        this.mode = mode;
+    }
+
+    /**
+     * The time quantum of this receiver.
+     *
+     * @return the quantum in milliseconds
+     */
+    public long getQuantum() {
+        return quantum;
+    }
+
+    /**
+     * Set how many processes may run at once, i.e. hold a run slot. The default is the number of
+     * available processors.
+     *
+     * @param runSlots the number of run slots
+     * @throws IllegalArgumentException if it is not positive
+     * @throws IllegalStateException if the receiver is running
+     */
+    public void setRunSlots(int runSlots) {
+        if (runSlots < 1) {
+            throw new IllegalArgumentException("run slots must be at least 1: " + runSlots);
+        }
+        if (dispatching.get()) {
+            throw new IllegalStateException("receiver is already running");
+        }
+        this.runSlots = runSlots;
+    }
+
+    /**
+     * How many processes may run at once.
+     *
+     * @return the number of run slots
+     */
+    public int getRunSlots() {
+        return runSlots;
+    }
+
+    /**
+     * Tune the quantum online instead of using the fixed one, or go back to the fixed quantum.
+     * The fixed quantum is still used until the first process completes. Receivers that choose
+     * their own slice lengths, such as MLFQReceiver, cannot be tuned.
+     *
+     * @param adaptiveQuantum the tuner, or null for the fixed quantum
+     * @throws IllegalStateException if the receiver is running, or a tuner is given and the
+     * receiver does not use its quantum
+     */
+    public void setAdaptiveQuantum(AdaptiveQuantum adaptiveQuantum) {
+        if (dispatching.get()) {
+            throw new IllegalStateException("receiver is already running");
+        }
+        if (adaptiveQuantum != null && !usesQuantum()) {
+            throw new IllegalStateException(getClass().getSimpleName() + " chooses its own slice lengths");
+        }
+        this.adaptiveQuantum = adaptiveQuantum;
+    }
+
+    /**
+     * Whether every slice is given the receiver's quantum, so it can be tuned by setAdaptiveQuantum.
+     * Receivers that override sliceFor to choose their own slice lengths override this to return
+     * false.
+     *
+     * @return true if slices come from the quantum
+     */
+    protected boolean usesQuantum() {
+        return true;
+    }
+
+    /**
+     * The tuner set by setAdaptiveQuantum.
+     *
+     * @return the tuner, or null if the quantum is fixed
+     */
+    public AdaptiveQuantum getAdaptiveQuantum() {
+        return adaptiveQuantum;
+    }
+
+    /**
+     * Record every process enqueued on this receiver, each dispatch and each completion in the given
+     * journal, or stop journalling. Processes already enqueued are not recorded.
+     *
+     * @param journal the journal, or null for none
+     * @throws IllegalStateException if the receiver is running
+     */
+    public void setJournal(Journal journal) {
+        if (dispatching.get()) {
+            throw new IllegalStateException("receiver is already running");
+        }
+        this.journal = journal;
+    }
+
+    /**
+     * The journal set by setJournal.
+     *
+     * @return the journal, or null if there is none
+     */
+    public Journal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Bound the number of processes this receiver holds, and the rate they may arrive at, with the
+     * given admission control, or remove the bounds. Processes already enqueued are not counted.
+     *
+     * @param admission the admission control, or null for none
+     * @throws IllegalStateException if the receiver is running
+     */
+    public void setAdmissionControl(AdmissionControl admission) {
+        if (dispatching.get()) {
+            throw new IllegalStateException("receiver is already running");
+        }
+        this.admission = admission;
+    }
+
+    /**
+     * The admission control set by setAdmissionControl.
+     *
+     * @return the admission control, or null if there is none
+     */
+    public AdmissionControl getAdmissionControl() {
+        return admission;
+    }
+
+    /**
+     * The recorder of this receiver's scheduling events.
+     *
+     * @return the trace recorder
+     */
+    public TraceRecorder getTrace() {
+        return trace;
+    }
+
+    /**
+     * Replace the trace recorder, e.g. with one that keeps more events. This should be done before
+     * any process is enqueued.
+     *
+     * @param trace the new recorder
+     * @throws IllegalStateException if the receiver is running
+     */
+    public void setTrace(TraceRecorder trace) {
+        Objects.requireNonNull(trace);
+        if (dispatching.get()) {
+            throw new IllegalStateException("receiver is already running");
+        }
+        this.trace = trace;
+    }
+
+    /**
+     * Journal this receiver in the given journal and enqueue the processes recovered from it, which
+     * had not completed when it was last used. The queue is rebuilt in the order they arrived, and
+     * the scheduling policy of this receiver, which need not be the one they were first enqueued on,
+     * puts them in its own order.
+     *
+     * @param journal a journal that has just been opened
+     * @return the number of processes recovered
+     * @throws IllegalStateException if the receiver is running or has been shut down
+     */
+    public int recover(Journal journal) {
+        setJournal(journal);
+        List<ModuleRegister> recovered = journal.getRecovered();
+        for (ModuleRegister m : recovered) {
+            enqueue(m);
+        }
+        return recovered.size();
+    }
+
+    /**
+     * The scheduling metrics of this receiver, which are updated as it runs.
+     *
+     * @return the metrics
+     */
+    public SchedulerMetrics getMetrics() {
+        return metrics;
     }
 
     /**
      * Add a process to  the queue of precesses, for registering a module to a student .
+     * This may be called from any number of threads, before or while the receiver is running:
+     * the process is put on a lock-free inbox and handed to the scheduling policy by the
+     * dispatcher on its next pass. With admission control this may block, or refuse the process,
+     * when the receiver is full.
      *
      * @param m
+     * @throws IllegalStateException if the receiver has been shut down
+     * @throws java.util.concurrent.RejectedExecutionException if admission control refuses the process
      */
-    public abstract void enqueue(ModuleRegister m);
+    public final void enqueue(ModuleRegister m) {
+        Objects.requireNonNull(m);
+        producers.incrementAndGet();
+        try {
+            if (closed) {
+                throw new IllegalStateException("receiver has been shut down");
+            }
+            AdmissionControl a = admission;
+            if (a != null) {
+                a.admit(m);
+            }
+            try {
+                long now = now();
+                m.markArrival(now);
+                trace.record(TraceRecorder.Event.ENQUEUE, m, now);
+                Journal j = journal;
+                if (j != null) {
+                    // written ahead, so it is recorded before the dispatcher can see it
+                    j.enqueued(m);
+                }
+                inbox.offer(m);
+            } catch (RuntimeException | Error e) {
+                // it will never complete, so give back the room it was admitted to
+                if (a != null) {
+                    a.completed(m);
+                }
+                throw e;
+            }
+        } finally {
+            producers.decrementAndGet();
+        }
+        LockSupport.unpark(dispatcher);
+    }
+
+    /**
+     * Add a newly enqueued process to the scheduling policy. Only called on the dispatcher thread.
+     *
+     * @param m
+     */
+    protected abstract void admit(ModuleRegister m);
+
+    /**
+     * Remove and return the process that should run next, or null if there are no queued processes.
+     *
+     * @return the next process to dispatch
+     */
+    protected abstract ModuleRegister nextProcess();
+
+    /**
+     * Put a process that has just had its quantum, and is not yet complete, back in the queue.
+     *
+     * @param m
+     */
+    protected abstract void requeue(ModuleRegister m);
+
+    /**
+     * Start registering modules. Processes are taken from the queue whenever a run slot is free:
+     * a NEW process is started, any other live process is woken and given the slot back, and in
+     * both cases it holds the slot for up to one slice (normally one quantum) before going back in the queue.
+     * A process that completes is added to the results as soon as it signals completion
+     * and is dropped from the queue the next time it comes round.
+     * This returns once every process enqueued so far, or while it runs, has completed.
+     *
+     * @return the completed processes, in the order they completed
+     * @throws IllegalStateException if the receiver is already running
+     */
+    public List<ModuleRegister> startRegistration() {
+        if (!dispatching.compareAndSet(false, true)) {
+            throw new IllegalStateException("receiver is already running");
+        }
+        ListResults results = new ListResults();
+        dispatch(false, results);
+        return results.list;
+    }
 
     /**
-     * Start registering modules.
+     * Start registering modules on a new dispatcher thread and return straight away. Unlike
+     * startRegistration the receiver keeps running when its queues are empty, waiting for more
+     * processes to be enqueued, until shutdown() is called.
      *
-     * @return
+     * @throws IllegalStateException if the receiver is already running
      */
-    public abstract List<ModuleRegister> startRegistration();
+    public void startService() {
+        if (!dispatching.compareAndSet(false, true)) {
+            throw new IllegalStateException("receiver is already running");
+        }
+        ListResults results = new ListResults();
+        serviceResults = results.done;
+        startDispatcher(true, results);
+    }
 
+    /**
+     * A publisher of the processes of one batch, each published as soon as it completes, so they
+     * can be acted on without waiting for the slowest. The batch starts on a new dispatcher thread
+     * when the publisher is subscribed to, and the subscriber is completed once every process
+     * enqueued so far, or while it runs, has completed. Only one subscriber is allowed.
+     *
+     * Processes are handed to the subscriber only as it requests them. Those it has not yet asked
+     * for wait in an unbounded queue, so a slow subscriber never holds up the dispatcher and never
+     * misses a process, at the cost of the memory they take while it catches up.
+     *
+     * @return a publisher of completed processes, in the order they completed
+     */
+    public Flow.Publisher<ModuleRegister> streamRegistration() {
+        return stream(false);
+    }
+
+    /**
+     * Like streamRegistration(), but the receiver keeps running as a service until shutdown() is
+     * called and everything enqueued has completed, and only then is the subscriber completed.
+     * awaitTermination() is for startService() and cannot be used with this.
+     *
+     * @return a publisher of completed processes, in the order they completed
+     */
+    public Flow.Publisher<ModuleRegister> streamService() {
+        return stream(true);
+    }
+
+    // a single-use publisher that starts a dispatcher when subscribed to
+    private Flow.Publisher<ModuleRegister> stream(boolean untilShutdown) {
+        AtomicBoolean subscribed = new AtomicBoolean();
+        return subscriber -> {
+            Objects.requireNonNull(subscriber);
+            SubmissionPublisher<ModuleRegister> out = new SubmissionPublisher<>();
+            if (!subscribed.compareAndSet(false, true)) {
+                out.closeExceptionally(new IllegalStateException("publisher already has a subscriber"));
+            } else if (!dispatching.compareAndSet(false, true)) {
+                out.closeExceptionally(new IllegalStateException("receiver is already running"));
+            }
+            // subscribe before starting so nothing is published with no one to receive it
+            out.subscribe(subscriber);
+            if (!out.isClosed()) {
+                startDispatcher(untilShutdown, new PublishedResults(out, getClass().getSimpleName() + "-publisher"));
+            }
+        };
+    }
+
+    // run the dispatch loop on a new thread, which finishes the results when it stops
+    private void startDispatcher(boolean untilShutdown, Results results) {
+        new Thread(() -> dispatch(untilShutdown, results), getClass().getSimpleName() + "-dispatcher").start();
+    }
+
+    // where the dispatcher puts completed processes; only called on the dispatcher thread
+    private interface Results {
+        void add(ModuleRegister m);
+
+        // called once when the dispatcher stops, with what stopped it or null if it finished
+        void finish(Throwable failure);
+    }
+
+    // collects completed processes into a list for startRegistration and startService
+    private static final class ListResults implements Results {
+        final List<ModuleRegister> list = new ArrayList<>();
+        final CompletableFuture<List<ModuleRegister>> done = new CompletableFuture<>();
+
+        @Override
+        public void add(ModuleRegister m) {
+            list.add(m);
+        }
+
+        @Override
+        public void finish(Throwable failure) {
+            if (failure == null) {
+                done.complete(list);
+            } else {
+                done.completeExceptionally(failure);
+            }
+        }
+    }
+
+    // hands completed processes to a stream's subscriber. The dispatcher only queues them; a thread
+    // of their own submits them, which waits whenever the subscriber has not requested more
+    private static final class PublishedResults implements Results {
+        // the end of the queue, after which the publisher is closed
+        private static final Object END = new Object();
+
+        private final LinkedBlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+        private volatile Throwable failure;
+
+        PublishedResults(SubmissionPublisher<ModuleRegister> out, String name) {
+            Thread t = new Thread(() -> publish(out), name);
+            // it may wait forever for a subscriber that stops requesting
+            t.setDaemon(true);
+            t.start();
+        }
+
+        @Override
+        public void add(ModuleRegister m) {
+            queue.add(m);
+        }
+
+        @Override
+        public void finish(Throwable failure) {
+            this.failure = failure;
+            queue.add(END);
+        }
+
+        private void publish(SubmissionPublisher<ModuleRegister> out) {
+            try {
+                Object next;
+                while ((next = queue.take()) != END) {
+                    out.submit((ModuleRegister) next);
+                }
+                Throwable f = failure;
+                if (f == null) {
+                    out.close();
+                } else {
+                    out.closeExceptionally(f);
+                }
+            } catch (InterruptedException e) {
+                out.closeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Stop accepting new processes. Everything already enqueued is still run to completion,
+     * after which a receiver started with startService() stops.
+     */
+    public void shutdown() {
+        closed = true;
+        LockSupport.unpark(dispatcher);
+    }
+
+    /**
+     * Wait for a receiver started with startService() to finish after shutdown().
+     *
+     * @param timeout the longest time to wait
+     * @param unit the unit of the timeout
+     * @return the completed processes, in the order they completed, or null if the timeout elapsed first
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IllegalStateException if startService() has not been called
+     */
+    public List<ModuleRegister> awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        CompletableFuture<List<ModuleRegister>> results = serviceResults;
+        if (results == null) {
+            throw new IllegalStateException("receiver was not started with startService()");
+        }
+        try {
+            return results.get(timeout, unit);
+        } catch (TimeoutException e) {
+            return null;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("dispatcher failed", e.getCause());
+        }
+    }
+
+    // the dispatch loop shared by startRegistration and startService
+    private void dispatch(boolean untilShutdown, Results results) {
+        dispatcher = Thread.currentThread();
+        completed = results;
+        running.set(0);
+        Throwable failure = null;
 
-    // method to stop the thgread executing for QUANTUM milliseconds
-    public void pauseForQuantum() {
         try {
-            Thread.sleep(QUANTUM);
-        } catch (InterruptedException e) {
-            System.err.println(e);
+            dispatchStarted();
+            int slots = runSlots;
+            if (held.length < Math.min(slots, 64)) {
+                held = new ModuleRegister[Math.min(slots, 64)];
+                sliceEnds = new long[held.length];
+            }
+            while (true) {
+                collectEvents();
+                endSlices();
+                fillSlots(slots);
+                Journal j = journal;
+                if (heldCount == 0) {
+                    if (running.get() == 0 && isIdle() && isDrained(untilShutdown)) {
+                        break;
+                    }
+                    if (j != null) {
+                        j.sync();
+                    }
+                    // nothing to dispatch until a process arrives or completes
+                    awaitEvent(untilShutdown);
+                    continue;
+                }
+                if (j != null) {
+                    // everything recorded in this pass goes to disk together
+                    j.commit();
+                }
+                awaitSliceEnd();
+            }
+        } catch (RuntimeException | Error e) {
+            failure = e;
+            throw e;
+        } finally {
+            Journal j = journal;
+            if (j != null) {
+                j.sync();
+            }
+            dispatchStopped();
+            Arrays.fill(held, 0, heldCount, null);
+            heldCount = 0;
+            dispatcher = null;
+            completed = null;
+            dispatching.set(false);
+            results.finish(failure);
+        }
+    }
+
+    /**
+     * Give a process its turn: a NEW process is started, any other live process is woken and
+     * given its run slot back. The caller then lets it run for a slice and calls preempt() if it
+     * has not completed. Safe to call from threads other than the dispatcher, for receivers that
+     * dispatch on several threads.
+     *
+     * @param process the process to dispatch, which is not complete
+     * @return false if the process had already terminated without signalling completion, e.g.
+     * because it was started outside the receiver, or was shed by admission control, in which
+     * case it should be dropped
+     */
+    protected final boolean begin(ModuleRegister process) {
+        Journal j = journal;
+        AdmissionControl a = admission;
+        if (a != null && process.getRunState() == Thread.State.NEW && !a.start(process, now())) {
+            // shed while it was waiting and not removed from the queue, so it is dropped now
+            drop(process);
+            return false;
+        }
+        if (j != null && !process.isComplete()) {
+            j.dispatched(process);
+        }
+        long now;
+        switch (process.getRunState()) {
+            case NEW:
+                running.incrementAndGet();
+                now = now();
+                process.markDispatched(now);
+                trace.record(TraceRecorder.Event.DISPATCH, process, now);
+                process.start(mode, this::signalComplete);
+                break;
+            case TERMINATED:
+                metrics.recordDrop();
+                return false;
+            default:
+                now = now();
+                process.markDispatched(now);
+                trace.record(TraceRecorder.Event.DISPATCH, process, now);
+                trace.record(TraceRecorder.Event.INTERRUPT, process, now);
+                process.wake();
+                break;
         }
+        metrics.recordDispatch();
+        return true;
+    }
+
+    /**
+     * Take the run slot back from a process at the end of its slice, before it is requeued. Safe to
+     * call from threads other than the dispatcher, like begin().
+     *
+     * @param process a process that has been given a slice and is not complete
+     */
+    protected final void preempt(ModuleRegister process) {
+        long now = now();
+        process.markPreempted(now);
+        trace.record(TraceRecorder.Event.REQUEUE, process, now);
+        process.preempt();
+    }
+
+    /**
+     * Take a waiting process out of the policy before its turn, because admission control has shed
+     * it. Receivers that cannot leave this returning false, and the process is dropped when its
+     * turn comes instead. Only called on the dispatcher thread.
+     *
+     * @param m the shed process
+     * @return true if it was waiting and has been removed
+     */
+    protected boolean remove(ModuleRegister m) {
+        return false;
+    }
+
+    /**
+     * Whether the policy is holding no processes outside nextProcess(), so the dispatch loop may stop
+     * once nextProcess() returns null. Receivers that hand processes to threads of their own
+     * override this. Only called on the dispatcher thread.
+     *
+     * @return true if no process is held elsewhere
+     */
+    protected boolean isIdle() {
+        return true;
+    }
+
+    /**
+     * Called on the dispatcher thread when the dispatch loop starts, before anything is admitted.
+     */
+    protected void dispatchStarted() {
+    }
+
+    /**
+     * Called on the dispatcher thread when the dispatch loop stops.
+     */
+    protected void dispatchStopped() {
+    }
+
+    /**
+     * Called on the dispatcher thread when a completed process has been added to the results.
+     *
+     * @param m
+     */
+    protected void collected(ModuleRegister m) {
+    }
+
+    /**
+     * Wake the dispatcher, e.g. because isIdle() may have changed.
+     */
+    protected final void wakeDispatcher() {
+        LockSupport.unpark(dispatcher);
+    }
+
+    /**
+     * The current time according to this receiver's clock, which is System.nanoTime() unless
+     * the receiver is being driven by a Simulation. Policies should use this rather than
+     * System.nanoTime() for any decision based on time.
+     *
+     * @return the current time in nanoseconds
+     */
+    protected long now() {
+        return clock.getAsLong();
+    }
+
+    /**
+     * Replaces the clock, for a Simulation.
+     *
+     * @param clock gives the current time in nanoseconds
+     */
+    void setClock(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * The length of the slice the given process is about to be given. This is the receiver's
+     * quantum, or the tuned quantum in adaptive mode, unless a subclass varies it, e.g. by queue level.
+     *
+     * @param process the process that has just been dispatched
+     * @return the slice length in milliseconds
+     */
+    protected long sliceFor(ModuleRegister process) {
+        AdaptiveQuantum a = adaptiveQuantum;
+        return a == null ? quantum : a.quantumFor(quantum, metrics, runSlots, process);
+    }
+
+    // give free run slots to the next processes until the slots are full or nothing is waiting
+    private void fillSlots(int slots) {
+        while (heldCount < slots) {
+            ModuleRegister process = nextProcess();
+            if (process == null) {
+                return;
+            }
+            if (process.isComplete()) {
+                // already in the results, just drop it from the queue
+                continue;
+            }
+            if (!begin(process)) {
+                continue;
+            }
+            if (heldCount == held.length) {
+                held = Arrays.copyOf(held, heldCount * 2);
+                sliceEnds = Arrays.copyOf(sliceEnds, heldCount * 2);
+            }
+            held[heldCount] = process;
+            sliceEnds[heldCount++] = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(sliceFor(process));
+        }
+    }
+
+    // free the slots of processes that have completed, and preempt and requeue those whose slice
+    // is over, in the order they were dispatched
+    private void endSlices() {
+        long t = System.nanoTime();
+        int kept = 0;
+        for (int i = 0; i < heldCount; i++) {
+            ModuleRegister process = held[i];
+            if (process.isComplete()) {
+                continue;
+            }
+            if (t - sliceEnds[i] >= 0) {
+                preempt(process);
+                requeue(process);
+                continue;
+            }
+            held[kept] = process;
+            sliceEnds[kept++] = sliceEnds[i];
+        }
+        Arrays.fill(held, kept, heldCount, null);
+        heldCount = kept;
+    }
+
+    // block the dispatcher until the first slice ends or a process completes or arrives
+    private void awaitSliceEnd() {
+        long end = sliceEnds[0];
+        for (int i = 1; i < heldCount; i++) {
+            if (sliceEnds[i] - end < 0) {
+                end = sliceEnds[i];
+            }
+        }
+        long remaining;
+        while (completions.isEmpty() && inbox.isEmpty() && (remaining = end - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(this, remaining);
+        }
+    }
+
+    // whether no more processes can arrive: always true for a batch, only after shutdown for a service
+    private boolean isDrained(boolean untilShutdown) {
+        if (!inbox.isEmpty()) {
+            return false;
+        }
+        if (!untilShutdown) {
+            return true;
+        }
+        // a producer that got past the closed check may still be about to offer
+        return closed && producers.get() == 0 && inbox.isEmpty();
+    }
+
+    // block the dispatcher until a process completes or arrives, or the receiver is shut down
+    private void awaitEvent(boolean untilShutdown) {
+        while (completions.isEmpty() && inbox.isEmpty() && !(untilShutdown && closed)) {
+            LockSupport.park(this);
+        }
+    }
+
+    // move finished processes into the results and new arrivals into the scheduling policy
+    private void collectEvents() {
+        AdmissionControl a = admission;
+        ModuleRegister m;
+        while ((m = completions.poll()) != null) {
+            // count the final slice, which ended when the process completed, unless the slice was
+            // counted when it was preempted just as the process completed
+            m.markPreempted(m.getCompletionNanos());
+            Journal j = journal;
+            if (j != null) {
+                j.completed(m);
+            }
+            if (a != null) {
+                a.completed(m);
+            }
+            metrics.recordCompletion(m);
+            // never waits, however far behind a stream's subscriber has fallen
+            completed.add(m);
+            running.decrementAndGet();
+            collected(m);
+        }
+        while ((m = inbox.poll()) != null) {
+            metrics.recordArrival(m);
+            if (a != null && m.isShed()) {
+                // shed before it reached the policy
+                drop(m);
+                continue;
+            }
+            admit(m);
+        }
+        if (a != null) {
+            // shed processes leave the queue now, rather than taking up room until their turn
+            while ((m = a.pollShed()) != null) {
+                if (remove(m)) {
+                    drop(m);
+                }
+            }
+        }
+    }
+
+    // a shed process is dropped without being run, or recovered
+    private void drop(ModuleRegister m) {
+        Journal j = journal;
+        if (j != null) {
+            j.completed(m);
+        }
+        metrics.recordDrop();
+    }
+
+    /**
+     * Called on the worker thread of a process when its work is done. Queues it for the
+     * dispatcher to collect and wakes the dispatcher; overriders must call this.
+     *
+     * @param m
+     */
+    protected void signalComplete(ModuleRegister m) {
+        trace.record(TraceRecorder.Event.COMPLETE, m, m.getCompletionNanos());
+        completions.offer(m);
+        LockSupport.unpark(dispatcher);
     }
-}
\ No newline at end of file
+}
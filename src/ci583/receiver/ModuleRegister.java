@@ -1,18 +1,62 @@
 package ci583.receiver;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
 /**
  * A class representing a process for the CI583 Modules Registration assignment. Process is a subclass of Thread.
- * When the thread runs, the 'work' that it does is to sleep repeatedly.
+ * When the thread runs, the 'work' that it does is to park for a total of 'work' milliseconds while it
+ * holds a run slot. A receiver grants the slot when it dispatches the process and takes it back when
+ * the slice is over, so the process only makes progress during its slices. A process started on its
+ * own, outside a receiver, holds a slot from the start and simply runs to completion.
  *
  *
  */
 public class ModuleRegister extends Thread {
     /** The amount of 'work' this process has to do, in milliseconds. */
     private long work;
-    /** The time at which this process was started, in milliseconds. */
-    private long timeStarted;
-    /** Contains the name and other details of this process. */
-    private String status;
+    /** The System.nanoTime() at which this process was started. */
+    private long startNanos;
+    /** How long the work actually took, in nanoseconds, once complete. */
+    private long workDoneNanos;
+    /** The priority this process was created with. */
+    private final PRIORITY level;
+    /** How long after arrival this process must be complete, in milliseconds, or NO_DEADLINE. */
+    private final long deadline;
+    /** The thread doing the work of this process once started: either this object or a virtual thread. */
+    private volatile Thread worker;
+    /** Whether this process holds a run slot, and so may make progress with its work. */
+    private volatile boolean granted = true;
+    /** Set once the work is done, just before the completion listener is told. */
+    private volatile boolean complete;
+    /** Set if admission control shed this process to make room, so it is never run. */
+    private volatile boolean shed;
+    /** Told when this process finishes its work, so a receiver does not have to poll for it. */
+    private volatile Consumer<ModuleRegister> onComplete;
+
+    // Scheduling timestamps from System.nanoTime(). Each is written by one thread (the enqueuing thread,
+    // the dispatcher and the worker respectively) and handed on through the receiver's queues, so they
+    // can be read safely once the process is complete.
+    /** When this process was enqueued on a receiver. */
+    private long arrivalNanos;
+    /** When this process was first dispatched, i.e. started. */
+    private long firstDispatchNanos;
+    /** When this process finished its work. */
+    private volatile long completionNanos;
+    /** The number of times this process has been dispatched, including the one that started it. */
+    private int slices;
+    /** The number of times this process has been interrupted to wake it up. */
+    private int interrupts;
+    /** When this process was last given a run slot. */
+    private long slotSinceNanos;
+    /** Whether this process holds a run slot whose time has not yet been added to runNanos. */
+    private boolean inSlot;
+    /** The total time this process has held a run slot, up to when it was last preempted. */
+    private long runNanos;
+
+    /** The deadline of a process that does not have one. */
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
 
     /** An enum containing three priority values, LOW, MEDIUM and HIGH.
      *
@@ -47,57 +91,387 @@ public class ModuleRegister extends Thread {
      * @param p
      */
     public ModuleRegister(String pid, long work, PRIORITY p) {
+        this(pid, work, p, NO_DEADLINE);
+    }
+
+    /**
+     * Constructs a new Process with the given name, amount of work to do, priority and deadline.
+     * The deadline is relative to when the process is enqueued on a receiver, e.g. the time left
+     * before a registration window closes.
+     * @param pid
+     * @param work
+     * @param p
+     * @param deadline milliseconds after arrival by which the work must be complete, or NO_DEADLINE
+     * @throws IllegalArgumentException if the deadline is negative
+     */
+    public ModuleRegister(String pid, long work, PRIORITY p, long deadline) {
+        if (deadline < 0) {
+            throw new IllegalArgumentException("deadline must not be negative: " + deadline);
+        }
         this.setName(pid);
         this.work = work;
-        timeStarted = System.currentTimeMillis();
+        this.deadline = deadline;
+        level = p;
         setPriority(p.getVal());
-        status = String.format("[%s %d] INCOMPLETE %d", pid, getPriority(), work);
     }
 
     /**
-     * The run method sleeps repeatedly until the 'work' is done.
+     * The run method parks until the 'work' is done. While it holds a run slot it parks until the
+     * point at which the rest of its work is due, so it wakes once rather than polling. If the slot
+     * is taken away first, the time it held the slot is subtracted from the work left and it parks
+     * until the slot is granted again.
      */
     public void run() {
-        timeStarted = System.currentTimeMillis(); // moved to the run method to allow the time to be calculated BEFORE the process is run to sync up properly
-        while(workDone() < work) {
-            try {
-                Thread.sleep(10);
-            } catch (InterruptedException ignored) { }
+        startNanos = System.nanoTime(); // set in run so the time is taken when the process actually starts
+        long left = TimeUnit.MILLISECONDS.toNanos(work);
+        while (left > 0) {
+            while (!granted) {
+                park(0);
+            }
+            long sliceStart = System.nanoTime();
+            long due = sliceStart + left;
+            long remaining;
+            while (granted && (remaining = due - System.nanoTime()) > 0) {
+                park(remaining);
+            }
+            left -= System.nanoTime() - sliceStart;
+        }
+        long now = System.nanoTime();
+        finish(now, now - startNanos);
+    }
+
+    // park until unparked or, if nanos is positive, until it has passed
+    private void park(long nanos) {
+        if (nanos > 0) {
+            LockSupport.parkNanos(this, nanos);
+        } else {
+            LockSupport.park(this);
         }
-        setStatus();
+        // clear any interrupt, otherwise park would return straight away from now on
+        Thread.interrupted();
     }
 
     /**
-     * Sets a string describing this process and how long it took to complete.
+     * Marks this process complete and tells the completion listener, if there is one.
+     * Called at the end of run(), or directly by a Simulation, which never runs the process.
+     * @param now the current System.nanoTime(), or the virtual time in a simulation
+     * @param workDone how long the work took in nanoseconds
      */
-    private void setStatus() {
-        status = String.format("[%s %d] COMPLETE: %d/%d",
-                getName(), getPriority(), work, workDone());
+    void finish(long now, long workDone) {
+        workDoneNanos = workDone;
+        completionNanos = now;
+        complete = true;
+        Consumer<ModuleRegister> listener = onComplete;
+        if (listener != null) {
+            listener.accept(this);
+        }
     }
 
     /**
-     * Getter for status.
-     * @returns status of the process
+     * Marks a process that was sent to another JVM by a ShardedReceiver complete, with the timings
+     * it had there. They are given as offsets from its arrival there and applied to its arrival
+     * here, so they carry over whatever that JVM's clock, though the time spent on the socket is
+     * not counted.
+     * @param response the time from arriving to being first dispatched, in nanoseconds
+     * @param turnaround the time from arriving to completing, in nanoseconds
+     * @param run the time it held a run slot, in nanoseconds
+     * @param slices the number of slices it was given
+     * @param interrupts the number of times it was interrupted
      */
-    public String getStatus() {
-        return status;
+    void completeRemotely(long response, long turnaround, long run, int slices, int interrupts) {
+        firstDispatchNanos = arrivalNanos + response;
+        runNanos = run;
+        this.slices = slices;
+        this.interrupts = interrupts;
+        finish(arrivalNanos + turnaround, run);
+    }
 
+    /**
+     * Whether this process has finished its work. This becomes true slightly before the worker
+     * thread reaches TERMINATED.
+     * @return true if the work is done
+     */
+    public boolean isComplete() {
+        return complete;
     }
 
     /**
-     * The length of time, in milliseconds, that this process has been working.
-     * @return
+     * Whether admission control shed this process, while it was waiting to be started, to make
+     * room for one of higher priority. A shed process is never run or completed.
+     * @return true if it was shed
+     */
+    public boolean isShed() {
+        return shed;
+    }
+
+    /**
+     * Records that this process has been shed by admission control.
+     */
+    void markShed() {
+        shed = true;
+    }
+
+    /**
+     * The priority this process was created with. Unlike getPriority() this is the enum value
+     * itself, so receivers can use its ordinal to pick a queue (HIGH is 0, LOW is 2).
+     * @return the priority of this process
+     */
+    public PRIORITY getPriorityLevel() {
+        return level;
+    }
+
+    /**
+     * Starts this process using the given execution mode. In PLATFORM mode this is the same as
+     * calling start(); in VIRTUAL mode the work in run() is carried out by a new virtual thread
+     * and this object is never started itself.
+     * @param mode the kind of thread to run the work on
+     */
+    public void start(ExecutionMode mode) {
+        start(mode, null);
+    }
+
+    /**
+     * Starts this process using the given execution mode, telling the given listener when the
+     * work is done. The listener is called on the thread that did the work.
+     * @param mode the kind of thread to run the work on
+     * @param onComplete called with this process once it is complete, may be null
+     */
+    public void start(ExecutionMode mode, Consumer<ModuleRegister> onComplete) {
+        this.onComplete = onComplete;
+        if (mode == ExecutionMode.VIRTUAL) {
+            Thread t = Thread.ofVirtual().name(getName()).unstarted(this);
+            worker = t; // set before starting so getRunState() never sees NEW after this returns
+            t.start();
+        } else {
+            worker = this;
+            start();
+        }
+    }
+
+    /**
+     * The state of the thread doing this process's work. Receivers use this instead of getState()
+     * so that NEW and TERMINATED mean the same thing whichever execution mode the process was started in.
+     * @return the state of the worker thread, or NEW if the process has not been started
+     */
+    public State getRunState() {
+        Thread t = worker;
+        return t == null ? getState() : t.getState();
+    }
+
+    /**
+     * Grants this process a run slot and wakes the thread doing its work, so it carries on with it.
+     */
+    public void wake() {
+        markInterrupted();
+        granted = true;
+        unparkWorker();
+    }
+
+    /**
+     * Takes this process's run slot away. The thread doing its work stops making progress and parks
+     * until wake() is called.
+     */
+    void preempt() {
+        granted = false;
+        unparkWorker();
+    }
+
+    private void unparkWorker() {
+        Thread t = worker;
+        LockSupport.unpark(t == null ? this : t);
+    }
+
+    /**
+     * Records that this process has been enqueued on a receiver.
+     * @param now the current System.nanoTime()
+     */
+    void markArrival(long now) {
+        arrivalNanos = now;
+    }
+
+    /**
+     * Records that this process has been given a slice by a receiver.
+     * @param now the current System.nanoTime()
+     */
+    synchronized void markDispatched(long now) {
+        if (slices++ == 0) {
+            firstDispatchNanos = now;
+        }
+        slotSinceNanos = now;
+        inSlot = true;
+    }
+
+    /**
+     * Records that this process's run slot has been taken away at the end of its slice, or that it
+     * completed. Only the first call for each slice counts, so a slice that ends just as the
+     * process completes is not counted twice.
+     * @param now the current System.nanoTime()
+     */
+    synchronized void markPreempted(long now) {
+        if (inSlot) {
+            runNanos += now - slotSinceNanos;
+            inSlot = false;
+        }
+    }
+
+    /**
+     * Records that this process has been interrupted by a receiver.
      */
-    private long workDone() {
-      return System.currentTimeMillis() - timeStarted;
+    void markInterrupted() {
+        interrupts++;
+    }
+
+    /**
+     * The amount of work this process has to do.
+     * @return the work in milliseconds
+     */
+    public long getWork() {
+        return work;
+    }
+
+    /**
+     * How long after arrival this process must be complete.
+     * @return the deadline in milliseconds, or NO_DEADLINE
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Whether this process was given a deadline.
+     * @return true if it has one
+     */
+    public boolean hasDeadline() {
+        return deadline != NO_DEADLINE;
+    }
+
+    /**
+     * When this process must be complete by, as a System.nanoTime() value. Only meaningful once it has arrived.
+     * @return the absolute deadline, or Long.MAX_VALUE if there is none or it is too far off to represent
+     */
+    public long getDeadlineNanos() {
+        if (!hasDeadline()) {
+            return Long.MAX_VALUE;
+        }
+        try {
+            return Math.addExact(arrivalNanos, TimeUnit.MILLISECONDS.toNanos(deadline));
+        } catch (ArithmeticException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * How long before its deadline this process completed. Negative if it missed the deadline.
+     * Only meaningful once isComplete() and if hasDeadline().
+     * @return the slack in nanoseconds
+     */
+    public long getSlackNanos() {
+        return getDeadlineNanos() - completionNanos;
+    }
+
+    /**
+     * Whether this process completed after its deadline.
+     * @return true if it has a deadline, is complete and was late
+     */
+    public boolean missedDeadline() {
+        return complete && hasDeadline() && getSlackNanos() < 0;
+    }
+
+    /**
+     * When this process was enqueued, as a System.nanoTime() value.
+     * @return the arrival time
+     */
+    public long getArrivalNanos() {
+        return arrivalNanos;
+    }
+
+    /**
+     * When this process was first dispatched, as a System.nanoTime() value. Only meaningful once getSlices() is positive.
+     * @return the first dispatch time
+     */
+    public long getFirstDispatchNanos() {
+        return firstDispatchNanos;
+    }
+
+    /**
+     * When this process finished its work, as a System.nanoTime() value. Only meaningful once isComplete().
+     * @return the completion time
+     */
+    public long getCompletionNanos() {
+        return completionNanos;
+    }
+
+    /**
+     * The number of slices this process has been given.
+     * @return the number of dispatches
+     */
+    public int getSlices() {
+        return slices;
+    }
+
+    /**
+     * The number of times this process has been interrupted by its receiver.
+     * @return the number of interrupts
+     */
+    public int getInterrupts() {
+        return interrupts;
+    }
+
+    /**
+     * The total time this process has held a run slot, as of the end of its latest slice. This is
+     * how much of its work it has done, except while it is holding a slot. Once the process is
+     * complete and collected by its receiver it is the whole of its service time.
+     * @return the time in nanoseconds
+     */
+    public long getRunNanos() {
+        return runNanos;
+    }
+
+    /**
+     * The time from being enqueued to completing.
+     * @return the turnaround time in nanoseconds
+     */
+    public long getTurnaroundNanos() {
+        return completionNanos - arrivalNanos;
+    }
+
+    /**
+     * The time from being enqueued to being first dispatched.
+     * @return the response time in nanoseconds
+     */
+    public long getResponseNanos() {
+        return firstDispatchNanos - arrivalNanos;
+    }
+
+    /**
+     * The part of the turnaround time not accounted for by the work itself.
+     * @return the waiting time in nanoseconds
+     */
+    public long getWaitingNanos() {
+        return Math.max(0, getTurnaroundNanos() - TimeUnit.MILLISECONDS.toNanos(work));
+    }
+
+    /**
+     * Getter for status, a string describing this process and, once it is complete, how long it took.
+     * The string is only built when asked for.
+     * @returns status of the process
+     */
+    public String getStatus() {
+        StringBuilder sb = new StringBuilder(48).append('[').append(getName()).append(' ').append(getPriority());
+        if (complete) {
+            sb.append("] COMPLETE: ").append(work).append('/').append(TimeUnit.NANOSECONDS.toMillis(workDoneNanos));
+        } else {
+            sb.append("] INCOMPLETE ").append(work);
+        }
+        return sb.toString();
     }
 
     /**
-     * Returns the contents of `status'.
+     * Returns the status string.
      * @return
      */
     public String toString() {
-        return status;
+        return getStatus();
     }
 
 }
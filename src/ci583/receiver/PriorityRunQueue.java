@@ -0,0 +1,52 @@
+package ci583.receiver;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * Adapts a java.util.PriorityQueue to the RunQueue interface, so poll() returns the least element
+ * according to the comparator rather than the oldest. Unlike the other run queues, add and poll
+ * are O(log n).
+ *
+ * @param <E> the type of element held in the queue
+ */
+public class PriorityRunQueue<E> implements RunQueue<E> {
+    private final PriorityQueue<E> queue;
+
+    /**
+     * Creates an empty queue ordered by the given comparator.
+     *
+     * @param comparator
+     */
+    public PriorityRunQueue(Comparator<? super E> comparator) {
+        queue = new PriorityQueue<>(comparator);
+    }
+
+    @Override
+    public void add(E e) {
+        queue.add(e);
+    }
+
+    @Override
+    public E poll() {
+        return queue.poll();
+    }
+
+    @Override
+    public boolean remove(E e) {
+        // PriorityQueue.remove compares with equals, so look for this very element
+        for (Iterator<E> it = queue.iterator(); it.hasNext(); ) {
+            if (it.next() == e) {
+                it.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return queue.size();
+    }
+}
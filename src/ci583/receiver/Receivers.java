@@ -0,0 +1,43 @@
+package ci583.receiver;
+
+/**
+ * Makes receivers by the short names used to choose them on the command line and in the
+ * benchmarks' parameters.
+ */
+public final class Receivers {
+
+    private Receivers() {
+    }
+
+    /**
+     * Makes a receiver of the given kind.
+     *
+     * @param kind RR, P, MLFQ, SRTF, SJF, STRIDE, EDF or WS
+     * @param quantum the quantum in milliseconds
+     * @param mode whether processes run on platform or virtual threads
+     * @return a new receiver
+     * @throws IllegalArgumentException if the kind is not one of those
+     */
+    public static ModRegReceiver create(String kind, long quantum, ExecutionMode mode) {
+        switch (kind) {
+            case "RR":
+                return new RRReceiver(quantum, mode);
+            case "P":
+                return new PReceiver(quantum, mode);
+            case "MLFQ":
+                return new MLFQReceiver(quantum, mode);
+            case "SRTF":
+                return new SRTFReceiver(quantum, mode, true);
+            case "SJF":
+                return new SRTFReceiver(quantum, mode, false);
+            case "STRIDE":
+                return new StrideReceiver(quantum, mode);
+            case "EDF":
+                return new EDFReceiver(quantum, mode);
+            case "WS":
+                return new WorkStealingReceiver(quantum, mode, Runtime.getRuntime().availableProcessors());
+            default:
+                throw new IllegalArgumentException("unknown receiver: " + kind);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package ci583.receiver;
+
+/**
+ * A first-in first-out queue of processes waiting to be dispatched by a receiver.
+ * Receivers take the next process with poll() and, once it has had its quantum, put it back with
+ * add(). Implementations must do both in constant time so the cost of a dispatch does not grow
+ * with the number of queued registrations. remove() is for the rare case of taking a process out
+ * before its turn, e.g. when admission control sheds it, and may take linear time. Run queues are only used by the dispatcher thread
+ * and do not need to be thread-safe. Null elements are not allowed.
+ *
+ * @param <E> the type of element held in the queue
+ */
+public interface RunQueue<E> {
+
+    /**
+     * Adds an element at the tail of the queue.
+     *
+     * @param e the element to add
+     */
+    void add(E e);
+
+    /**
+     * Removes and returns the element at the head of the queue.
+     *
+     * @return the head of the queue, or null if it is empty
+     */
+    E poll();
+
+    /**
+     * Removes the given element, compared by identity, from wherever it is in the queue.
+     *
+     * @param e the element to remove
+     * @return true if it was in the queue
+     */
+    boolean remove(E e);
+
+    /**
+     * The number of elements in the queue.
+     *
+     * @return the size of the queue
+     */
+    int size();
+
+    /**
+     * Whether the queue has no elements.
+     *
+     * @return true if the queue is empty
+     */
+    default boolean isEmpty() {
+        return size() == 0;
+    }
+}
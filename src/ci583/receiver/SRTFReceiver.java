@@ -0,0 +1,90 @@
+package ci583.receiver;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Shortest Remaining Time First receiver. Every process carries its amount of work, so this
+ * receiver always dispatches the process with the least work left to do, held in a WorkHeap keyed
+ * on remaining work. At the end of each slice a process goes back in the heap keyed on the work it
+ * has left after the time it has held a run slot, so it keeps being dispatched until it completes
+ * or a process with less remaining work arrives and preempts it. A process is out of the heap
+ * while it holds a slot, so its key is set afresh when it goes back rather than lowered in place,
+ * and the key of a process waiting in the heap never changes.
+ *
+ * The non-preemptive variant is Shortest Job First: the process with the least total work is
+ * started, and once started a process goes back in the heap ahead of every process that has not,
+ * so it is dispatched again straight away each time until it completes.
+ */
+public class SRTFReceiver extends ModRegReceiver {
+    private final WorkHeap heap = new WorkHeap();
+    private final boolean preemptive;
+
+    /**
+     * Creates a preemptive Shortest Remaining Time First receiver.
+     *
+     * @param quantum
+     */
+    public SRTFReceiver(long quantum) {
+        this(quantum, ExecutionMode.PLATFORM, true);
+    }
+
+    /**
+     * Creates a Shortest Remaining Time First receiver, or with preemptive false a Shortest Job First receiver.
+     *
+     * @param quantum
+     * @param mode whether processes run on platform or virtual threads
+     * @param preemptive whether a process with less remaining work can take over from a running one
+     */
+    public SRTFReceiver(long quantum, ExecutionMode mode, boolean preemptive) {
+        super(quantum, mode);
+        this.preemptive = preemptive;
+    }
+
+    /**
+     * Whether this is the preemptive (SRTF) rather than the non-preemptive (SJF) variant.
+     *
+     * @return true for SRTF
+     */
+    public boolean isPreemptive() {
+        return preemptive;
+    }
+
+    /**
+     * The work a process still has to do, judged from its work and how long it has held a run slot.
+     *
+     * @param m
+     * @return the remaining work in nanoseconds
+     */
+    protected long remainingNanos(ModuleRegister m) {
+        return Math.max(0, TimeUnit.MILLISECONDS.toNanos(m.getWork()) - m.getRunNanos());
+    }
+
+    @Override
+    protected void admit(ModuleRegister m) {
+        heap.add(m, remainingNanos(m));
+    }
+
+    /**
+     * the next process is the one at the top of the heap
+     *
+     * @return the process with the least remaining work, or for SJF a started process if there is one
+     */
+    @Override
+    protected ModuleRegister nextProcess() {
+        return heap.poll();
+    }
+
+    /**
+     * SRTF: back in the heap keyed on the work it has left.
+     * SJF: back in the heap ahead of every process not yet started.
+     */
+    @Override
+    protected void requeue(ModuleRegister m) {
+        heap.add(m, preemptive ? remainingNanos(m) : Long.MIN_VALUE);
+    }
+
+    @Override
+    protected boolean remove(ModuleRegister m) {
+        return heap.remove(m);
+    }
+}
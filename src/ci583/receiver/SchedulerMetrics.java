@@ -0,0 +1,282 @@
+package ci583.receiver;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Aggregate scheduling metrics for one receiver: how many processes have arrived, been dispatched
+ * and completed, the throughput, and histograms of turnaround, waiting, response and service time
+ * (see ModuleRegister for the definitions). For processes with a deadline it also counts deadlines
+ * met and missed, with histograms of the slack of those that met it and the lateness of those that
+ * did not.
+ *
+ * The receiver's dispatcher records into it; everything can be read from any thread, directly or
+ * over JMX once registered.
+ */
+public class SchedulerMetrics implements SchedulerMetricsMXBean {
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private final LatencyHistogram turnaround = new LatencyHistogram();
+    private final LatencyHistogram waiting = new LatencyHistogram();
+    private final LatencyHistogram response = new LatencyHistogram();
+    private final LatencyHistogram service = new LatencyHistogram();
+    private final LatencyHistogram slack = new LatencyHistogram();
+    private final LatencyHistogram lateness = new LatencyHistogram();
+    private final AtomicLong arrived = new AtomicLong();
+    private final AtomicLong dispatches = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    // the span over which throughput is measured, from the first arrival to the latest completion
+    private volatile long firstArrivalNanos;
+    private volatile long lastCompletionNanos;
+
+    /**
+     * Records that a process has been admitted to the receiver.
+     *
+     * @param m
+     */
+    void recordArrival(ModuleRegister m) {
+        if (arrived.getAndIncrement() == 0) {
+            firstArrivalNanos = m.getArrivalNanos();
+        }
+    }
+
+    /**
+     * Records that a process has been given a slice.
+     */
+    void recordDispatch() {
+        dispatches.incrementAndGet();
+    }
+
+    /**
+     * Records that an admitted process was dropped without completing, e.g. because admission
+     * control shed it.
+     */
+    void recordDrop() {
+        dropped.incrementAndGet();
+    }
+
+    /**
+     * Records the timings of a process that has completed.
+     *
+     * @param m
+     */
+    void recordCompletion(ModuleRegister m) {
+        turnaround.record(m.getTurnaroundNanos());
+        waiting.record(m.getWaitingNanos());
+        response.record(m.getResponseNanos());
+        service.record(m.getRunNanos());
+        if (m.hasDeadline()) {
+            long slackNanos = m.getSlackNanos();
+            if (slackNanos >= 0) {
+                slack.record(slackNanos);
+            } else {
+                lateness.record(-slackNanos);
+            }
+        }
+        lastCompletionNanos = m.getCompletionNanos();
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server.
+     *
+     * @param name distinguishes this receiver from others in the same JVM
+     * @return the name it was registered under
+     * @throws IllegalStateException if registration fails, e.g. the name is already taken
+     */
+    public ObjectName registerMBean(String name) {
+        try {
+            ObjectName objectName = new ObjectName("ci583.receiver:type=SchedulerMetrics,name=" + ObjectName.quote(name));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(this, objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException("could not register metrics as " + name, e);
+        }
+    }
+
+    /**
+     * Turnaround times in nanoseconds.
+     *
+     * @return the histogram
+     */
+    public LatencyHistogram getTurnaround() {
+        return turnaround;
+    }
+
+    /**
+     * Waiting times in nanoseconds.
+     *
+     * @return the histogram
+     */
+    public LatencyHistogram getWaiting() {
+        return waiting;
+    }
+
+    /**
+     * Response times in nanoseconds.
+     *
+     * @return the histogram
+     */
+    public LatencyHistogram getResponse() {
+        return response;
+    }
+
+    /**
+     * Service times in nanoseconds, i.e. how long completed processes held a run slot.
+     *
+     * @return the histogram
+     */
+    public LatencyHistogram getService() {
+        return service;
+    }
+
+    /**
+     * How long before their deadlines processes that met them completed, in nanoseconds.
+     *
+     * @return the histogram
+     */
+    public LatencyHistogram getSlack() {
+        return slack;
+    }
+
+    /**
+     * How long after their deadlines processes that missed them completed, in nanoseconds.
+     *
+     * @return the histogram
+     */
+    public LatencyHistogram getLateness() {
+        return lateness;
+    }
+
+    @Override
+    public long getArrived() {
+        return arrived.get();
+    }
+
+    @Override
+    public long getCompleted() {
+        return turnaround.getCount();
+    }
+
+    @Override
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * The number of processes admitted that have neither completed nor been dropped, whether
+     * waiting or holding a run slot.
+     *
+     * @return the number in the receiver
+     */
+    public long getInReceiver() {
+        return arrived.get() - getCompleted() - dropped.get();
+    }
+
+    @Override
+    public long getDispatches() {
+        return dispatches.get();
+    }
+
+    @Override
+    public double getThroughputPerSecond() {
+        long completed = getCompleted();
+        long span = lastCompletionNanos - firstArrivalNanos;
+        return completed == 0 || span <= 0 ? 0 : completed * 1e9 / span;
+    }
+
+    @Override
+    public double getTurnaroundMeanMillis() {
+        return turnaround.getMean() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getTurnaroundP50Millis() {
+        return turnaround.getPercentile(50) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getTurnaroundP99Millis() {
+        return turnaround.getPercentile(99) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getTurnaroundP999Millis() {
+        return turnaround.getPercentile(99.9) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getWaitingP50Millis() {
+        return waiting.getPercentile(50) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getWaitingP99Millis() {
+        return waiting.getPercentile(99) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getWaitingP999Millis() {
+        return waiting.getPercentile(99.9) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getResponseP50Millis() {
+        return response.getPercentile(50) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getResponseP99Millis() {
+        return response.getPercentile(99) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getResponseP999Millis() {
+        return response.getPercentile(99.9) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public long getDeadlinesMet() {
+        return slack.getCount();
+    }
+
+    @Override
+    public long getDeadlinesMissed() {
+        return lateness.getCount();
+    }
+
+    @Override
+    public double getDeadlineMissRatio() {
+        long met = getDeadlinesMet();
+        long missed = getDeadlinesMissed();
+        return missed == 0 ? 0 : (double) missed / (met + missed);
+    }
+
+    @Override
+    public double getSlackP1Millis() {
+        return slack.getPercentile(1) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getSlackP50Millis() {
+        return slack.getPercentile(50) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getLatenessP50Millis() {
+        return lateness.getPercentile(50) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getLatenessP99Millis() {
+        return lateness.getPercentile(99) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getLatenessMaxMillis() {
+        return lateness.getMax() / NANOS_PER_MILLI;
+    }
+}
@@ -0,0 +1,53 @@
+package ci583.receiver;
+
+/**
+ * The JMX view of a receiver's SchedulerMetrics. Times are in milliseconds.
+ */
+public interface SchedulerMetricsMXBean {
+
+    long getArrived();
+
+    long getCompleted();
+
+    long getDropped();
+
+    long getDispatches();
+
+    double getThroughputPerSecond();
+
+    double getTurnaroundMeanMillis();
+
+    double getTurnaroundP50Millis();
+
+    double getTurnaroundP99Millis();
+
+    double getTurnaroundP999Millis();
+
+    double getWaitingP50Millis();
+
+    double getWaitingP99Millis();
+
+    double getWaitingP999Millis();
+
+    double getResponseP50Millis();
+
+    double getResponseP99Millis();
+
+    double getResponseP999Millis();
+
+    long getDeadlinesMet();
+
+    long getDeadlinesMissed();
+
+    double getDeadlineMissRatio();
+
+    double getSlackP1Millis();
+
+    double getSlackP50Millis();
+
+    double getLatenessP50Millis();
+
+    double getLatenessP99Millis();
+
+    double getLatenessMaxMillis();
+}
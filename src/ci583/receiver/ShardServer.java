@@ -0,0 +1,222 @@
+package ci583.receiver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Serves a receiver as one shard of a ShardedReceiver in a JVM of its own, over a socket on the
+ * loopback interface. It accepts a single front-end, starts the receiver as a service, enqueues
+ * each process the front-end sends and sends back each one as it completes, until the front-end
+ * shuts it down and everything has completed; a receiver only runs once, so the server then stops.
+ * Run it as a program to serve one of the receivers:
+ *
+ *     java ci583.receiver.ShardServer RR 20 9583
+ *
+ * The protocol is a stream of records in each direction, each starting with a type byte. The
+ * front-end sends ENQUEUE (id, name, work, priority and deadline) and SHUTDOWN; the server answers
+ * each ENQUEUE in order with ACCEPTED or REJECTED (id and the reason), sends COMPLETED (id and
+ * timings relative to arrival) as processes complete, and TERMINATED last.
+ */
+public class ShardServer implements Closeable {
+    static final int MAGIC = 0x4D525331;
+    // from the front-end
+    static final byte ENQUEUE = 1;
+    static final byte SHUTDOWN = 2;
+    // from the server
+    static final byte ACCEPTED = 1;
+    static final byte REJECTED = 2;
+    static final byte COMPLETED = 3;
+    static final byte TERMINATED = 4;
+
+    private static final ModuleRegister.PRIORITY[] PRIORITIES = ModuleRegister.PRIORITY.values();
+
+    private final ModRegReceiver receiver;
+    private final ServerSocket server;
+
+    /**
+     * Creates a server for a receiver, listening on the loopback interface.
+     *
+     * @param receiver a receiver that is not running
+     * @param port the port to listen on, or 0 for any free port
+     * @throws IOException if the port cannot be bound
+     */
+    public ShardServer(ModRegReceiver receiver, int port) throws IOException {
+        this.receiver = receiver;
+        this.server = new ServerSocket(port, 1, InetAddress.getLoopbackAddress());
+    }
+
+    /**
+     * The port the server is listening on.
+     *
+     * @return the port
+     */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Serves a front-end on a new thread and returns straight away.
+     */
+    public void start() {
+        new Thread(() -> {
+            try {
+                serve();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, "ShardServer-" + getPort()).start();
+    }
+
+    /**
+     * Waits for a front-end to connect and serves it until it has shut the receiver down and
+     * everything sent has completed.
+     *
+     * @throws IOException if the connection fails
+     */
+    public void serve() throws IOException {
+        try (Socket socket = server.accept()) {
+            server.close();
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not a ShardedReceiver");
+            }
+            out.writeInt(MAGIC);
+            out.flush();
+
+            // the front-end's ids of processes not yet completed
+            Map<ModuleRegister, Long> ids = new HashMap<>();
+            CountDownLatch terminated = new CountDownLatch(1);
+            receiver.streamService().subscribe(new Flow.Subscriber<ModuleRegister>() {
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    subscription.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(ModuleRegister m) {
+                    Long id;
+                    synchronized (ids) {
+                        id = ids.remove(m);
+                    }
+                    try {
+                        synchronized (out) {
+                            out.writeByte(COMPLETED);
+                            out.writeLong(id);
+                            out.writeLong(m.getResponseNanos());
+                            out.writeLong(m.getTurnaroundNanos());
+                            out.writeLong(m.getRunNanos());
+                            out.writeInt(m.getSlices());
+                            out.writeInt(m.getInterrupts());
+                            out.flush();
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+
+                @Override
+                public void onError(Throwable e) {
+                    terminated.countDown();
+                }
+
+                @Override
+                public void onComplete() {
+                    terminated.countDown();
+                }
+            });
+
+            boolean open = true;
+            while (open) {
+                byte type = in.readByte();
+                switch (type) {
+                    case ENQUEUE:
+                        long id = in.readLong();
+                        String name = in.readUTF();
+                        long work = in.readLong();
+                        ModuleRegister.PRIORITY p = PRIORITIES[in.readByte()];
+                        long deadline = in.readLong();
+                        ModuleRegister m = new ModuleRegister(name, work, p, deadline);
+                        synchronized (ids) {
+                            ids.put(m, id);
+                        }
+                        String reason = null;
+                        try {
+                            receiver.enqueue(m);
+                        } catch (RejectedExecutionException | IllegalStateException e) {
+                            synchronized (ids) {
+                                ids.remove(m);
+                            }
+                            reason = String.valueOf(e.getMessage());
+                        }
+                        synchronized (out) {
+                            out.writeByte(reason == null ? ACCEPTED : REJECTED);
+                            out.writeLong(id);
+                            if (reason != null) {
+                                out.writeUTF(reason);
+                            }
+                            out.flush();
+                        }
+                        break;
+                    case SHUTDOWN:
+                        receiver.shutdown();
+                        open = false;
+                        break;
+                    default:
+                        throw new IOException("unknown record type " + type);
+                }
+            }
+            terminated.await();
+            synchronized (out) {
+                out.writeByte(TERMINATED);
+                out.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            server.close();
+        }
+    }
+
+    /**
+     * Stops listening, if no front-end has connected yet.
+     *
+     * @throws IOException if the socket cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        server.close();
+    }
+
+    /**
+     * Serves a receiver as a shard.
+     *
+     * @param args the receiver (RR, P, MLFQ, SRTF, SJF, STRIDE, EDF or WS), its quantum in
+     * milliseconds and the port to listen on
+     * @throws IOException if the port cannot be bound or the connection fails
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("usage: ShardServer <receiver> <quantum> <port>");
+            System.exit(2);
+        }
+        ShardServer s = new ShardServer(
+                Receivers.create(args[0], Long.parseLong(args[1]), ExecutionMode.PLATFORM), Integer.parseInt(args[2]));
+        System.out.println("serving " + args[0] + " on port " + s.getPort());
+        s.serve();
+    }
+}
@@ -0,0 +1,428 @@
+package ci583.receiver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A front-end that partitions registrations across a number of receivers, its shards, so a
+ * deployment is not limited to the one queue and dispatcher thread of a single receiver. Each
+ * process is sent to a shard by consistent hashing of its key, the process name unless another
+ * key such as a student id is given, so all the registrations of one key go to the same shard.
+ * A shard is either a receiver in this JVM or a ShardServer in another, reached over a socket.
+ *
+ * Shards can be added while the front-end is running. Only the keys that fall to the new shard
+ * move, about 1/n of them, and only their later registrations go there: a process already
+ * enqueued on a receiver cannot be taken back, so it completes on the shard it was sent to.
+ *
+ * The completed processes of every shard are merged into one list, in the order the front-end
+ * learnt of them. A process completed by a remote shard has the timings it had there, measured
+ * from when it arrived there.
+ */
+public class ShardedReceiver {
+    /** The number of points each shard is placed at on the ring if not given. */
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    // one receiver, here or in another JVM
+    private abstract static class Shard {
+        final String id;
+        final AtomicLong completed = new AtomicLong();
+        final CompletableFuture<Void> terminated = new CompletableFuture<>();
+
+        Shard(String id) {
+            this.id = id;
+        }
+
+        abstract void start(Consumer<ModuleRegister> onComplete);
+
+        abstract void enqueue(ModuleRegister m);
+
+        abstract void shutdown();
+    }
+
+    // a receiver in this JVM, whose completions are streamed to the front-end
+    private static final class LocalShard extends Shard {
+        final ModRegReceiver receiver;
+
+        LocalShard(String id, ModRegReceiver receiver) {
+            super(id);
+            this.receiver = receiver;
+        }
+
+        @Override
+        void start(Consumer<ModuleRegister> onComplete) {
+            receiver.streamService().subscribe(new Flow.Subscriber<ModuleRegister>() {
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    subscription.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(ModuleRegister m) {
+                    onComplete.accept(m);
+                }
+
+                @Override
+                public void onError(Throwable e) {
+                    terminated.completeExceptionally(e);
+                }
+
+                @Override
+                public void onComplete() {
+                    terminated.complete(null);
+                }
+            });
+        }
+
+        @Override
+        void enqueue(ModuleRegister m) {
+            receiver.enqueue(m);
+        }
+
+        @Override
+        void shutdown() {
+            receiver.shutdown();
+        }
+    }
+
+    // a ShardServer in another JVM; enqueue waits for the server to accept or reject the process
+    private static final class RemoteShard extends Shard {
+        private static final Object ACCEPTED = new Object();
+
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+        // the processes sent and not yet completed, by the id they were sent with
+        final Map<Long, ModuleRegister> pending = new ConcurrentHashMap<>();
+        // the answer to the ENQUEUE in flight: ACCEPTED, why it was rejected, or why the connection closed
+        final BlockingQueue<Object> answers = new ArrayBlockingQueue<>(1);
+        // why no more answers will come, once the server has terminated or the connection failed
+        volatile Throwable closedBy;
+        long nextId;
+
+        RemoteShard(String id, String host, int port) throws IOException {
+            super(id);
+            socket = new Socket(host, port);
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeInt(ShardServer.MAGIC);
+            out.flush();
+            if (in.readInt() != ShardServer.MAGIC) {
+                socket.close();
+                throw new IOException(host + ":" + port + " is not a ShardServer");
+            }
+        }
+
+        @Override
+        void start(Consumer<ModuleRegister> onComplete) {
+            new Thread(() -> read(onComplete), "ShardedReceiver-" + id).start();
+        }
+
+        // read answers and completions until the server terminates or the connection fails
+        private void read(Consumer<ModuleRegister> onComplete) {
+            Throwable failure = null;
+            try {
+                while (true) {
+                    byte type = in.readByte();
+                    switch (type) {
+                        case ShardServer.ACCEPTED:
+                            in.readLong();
+                            answers.put(ACCEPTED);
+                            break;
+                        case ShardServer.REJECTED:
+                            pending.remove(in.readLong());
+                            answers.put(in.readUTF());
+                            break;
+                        case ShardServer.COMPLETED:
+                            long seq = in.readLong();
+                            ModuleRegister m = pending.remove(seq);
+                            if (m == null) {
+                                throw new IOException("completion of unknown process " + seq);
+                            }
+                            m.completeRemotely(in.readLong(), in.readLong(), in.readLong(), in.readInt(), in.readInt());
+                            onComplete.accept(m);
+                            break;
+                        case ShardServer.TERMINATED:
+                            closedBy = new IOException("shard " + id + " has terminated");
+                            terminated.complete(null);
+                            return;
+                        default:
+                            throw new IOException("unknown record type " + type);
+                    }
+                }
+            } catch (IOException | InterruptedException | RuntimeException e) {
+                failure = e;
+                closedBy = e;
+                terminated.completeExceptionally(e);
+            } finally {
+                if (closedBy == null) {
+                    closedBy = new IOException("shard " + id + " stopped reading");
+                }
+                // wake an enqueue waiting for an answer that will never come
+                answers.offer(closedBy);
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    if (failure != null) {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+        }
+
+        @Override
+        synchronized void enqueue(ModuleRegister m) {
+            if (closedBy != null) {
+                throw new RejectedExecutionException("shard " + id + " is unreachable", closedBy);
+            }
+            long seq = nextId++;
+            pending.put(seq, m);
+            m.markArrival(System.nanoTime());
+            Object answer;
+            try {
+                out.writeByte(ShardServer.ENQUEUE);
+                out.writeLong(seq);
+                out.writeUTF(m.getName());
+                out.writeLong(m.getWork());
+                out.writeByte(m.getPriorityLevel().ordinal());
+                out.writeLong(m.getDeadline());
+                out.flush();
+                answer = answers.take();
+            } catch (IOException e) {
+                answer = e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                answer = e;
+            }
+            if (answer != ACCEPTED) {
+                pending.remove(seq);
+                if (answer instanceof Throwable) {
+                    throw new RejectedExecutionException("shard " + id + " is unreachable", (Throwable) answer);
+                }
+                throw new RejectedExecutionException((String) answer);
+            }
+        }
+
+        @Override
+        synchronized void shutdown() {
+            try {
+                out.writeByte(ShardServer.SHUTDOWN);
+                out.flush();
+            } catch (IOException e) {
+                terminated.completeExceptionally(e);
+            }
+        }
+    }
+
+    private final Function<? super ModuleRegister, String> key;
+    private final HashRing<Shard> ring;
+    private final List<ModuleRegister> results = Collections.synchronizedList(new ArrayList<>());
+    private volatile boolean running;
+    private volatile boolean closed;
+
+    /**
+     * Creates a front-end with no shards, which partitions processes by name.
+     */
+    public ShardedReceiver() {
+        this(ModuleRegister::getName, DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * Creates a front-end with no shards.
+     *
+     * @param key gives the key a process is partitioned by, e.g. the student id in its name
+     * @param virtualNodes the number of points each shard is placed at on the ring
+     */
+    public ShardedReceiver(Function<? super ModuleRegister, String> key, int virtualNodes) {
+        this.key = Objects.requireNonNull(key);
+        this.ring = new HashRing<>(virtualNodes);
+    }
+
+    /**
+     * Adds a receiver in this JVM as a shard. If the front-end is running the receiver is started
+     * before any processes are sent to it.
+     *
+     * @param id the name of the shard
+     * @param receiver a receiver that is not running
+     * @throws IllegalArgumentException if there is already a shard with that name
+     * @throws IllegalStateException if the front-end has been shut down
+     */
+    public void addShard(String id, ModRegReceiver receiver) {
+        add(new LocalShard(id, receiver));
+    }
+
+    /**
+     * Connects to a ShardServer and adds it as a shard. The server starts its receiver as soon as
+     * it is connected to.
+     *
+     * @param id the name of the shard
+     * @param host the host the server is on
+     * @param port the port it is listening on
+     * @throws IOException if it cannot be connected to
+     * @throws IllegalArgumentException if there is already a shard with that name
+     * @throws IllegalStateException if the front-end has been shut down
+     */
+    public void addShard(String id, String host, int port) throws IOException {
+        if (ring.shard(id) != null) {
+            throw new IllegalArgumentException("already a shard called " + id);
+        }
+        RemoteShard shard = new RemoteShard(id, host, port);
+        // the server is running from now on, so read its answers whether or not the front-end is
+        shard.start(m -> completed(shard, m));
+        try {
+            add(shard);
+        } catch (RuntimeException e) {
+            shard.shutdown();
+            throw e;
+        }
+    }
+
+    private synchronized void add(Shard shard) {
+        if (closed) {
+            throw new IllegalStateException("receiver has been shut down");
+        }
+        if (ring.shard(shard.id) != null) {
+            throw new IllegalArgumentException("already a shard called " + shard.id);
+        }
+        if (running && shard instanceof LocalShard) {
+            shard.start(m -> completed(shard, m));
+        }
+        // once it is on the ring, keys start moving to it
+        ring.add(shard.id, shard);
+    }
+
+    private void completed(Shard shard, ModuleRegister m) {
+        shard.completed.incrementAndGet();
+        results.add(m);
+    }
+
+    /**
+     * Starts every shard in this JVM, and those added later as they are added, and returns
+     * straight away.
+     *
+     * @throws IllegalStateException if the front-end is already running
+     */
+    public synchronized void startService() {
+        if (running) {
+            throw new IllegalStateException("receiver is already running");
+        }
+        running = true;
+        for (String id : ring.ids()) {
+            Shard shard = ring.shard(id);
+            if (shard instanceof LocalShard) {
+                shard.start(m -> completed(shard, m));
+            }
+        }
+    }
+
+    /**
+     * Sends a process to the shard its key belongs to. This may be called from any number of
+     * threads, before or while the front-end is running.
+     *
+     * @param m
+     * @throws IllegalStateException if the front-end has been shut down or has no shards
+     * @throws RejectedExecutionException if the shard refuses the process, or is unreachable
+     */
+    public void enqueue(ModuleRegister m) {
+        if (closed) {
+            throw new IllegalStateException("receiver has been shut down");
+        }
+        ring.get(key.apply(m)).enqueue(m);
+    }
+
+    /**
+     * The name of the shard a process would be sent to now.
+     *
+     * @param m
+     * @return the name of the shard
+     * @throws IllegalStateException if there are no shards
+     */
+    public String shardFor(ModuleRegister m) {
+        return ring.idFor(key.apply(m));
+    }
+
+    /**
+     * The names of the shards, in the order they were added.
+     *
+     * @return the names
+     */
+    public List<String> getShards() {
+        return ring.ids();
+    }
+
+    /**
+     * The number of processes each shard has completed so far.
+     *
+     * @return the counts by the name of the shard, in the order they were added
+     */
+    public Map<String, Long> getCompletedByShard() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (String id : ring.ids()) {
+            counts.put(id, ring.shard(id).completed.get());
+        }
+        return counts;
+    }
+
+    /**
+     * Stop accepting new processes and shut every shard down. Everything already enqueued is
+     * still run to completion.
+     */
+    public synchronized void shutdown() {
+        closed = true;
+        for (String id : ring.ids()) {
+            ring.shard(id).shutdown();
+        }
+    }
+
+    /**
+     * Wait for every shard to finish after shutdown().
+     *
+     * @param timeout the longest time to wait
+     * @param unit the unit of the timeout
+     * @return the completed processes of every shard, merged in the order they completed, or null
+     * if the timeout elapsed first
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IllegalStateException if startService() has not been called, or a shard failed
+     */
+    public List<ModuleRegister> awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        if (!running) {
+            throw new IllegalStateException("receiver was not started with startService()");
+        }
+        List<CompletableFuture<Void>> all = new ArrayList<>();
+        for (String id : ring.ids()) {
+            all.add(ring.shard(id).terminated);
+        }
+        try {
+            CompletableFuture.allOf(all.toArray(new CompletableFuture<?>[0])).get(timeout, unit);
+        } catch (TimeoutException e) {
+            return null;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("shard failed", e.getCause());
+        }
+        synchronized (results) {
+            return new ArrayList<>(results);
+        }
+    }
+}
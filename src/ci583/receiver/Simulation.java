@@ -0,0 +1,206 @@
+package ci583.receiver;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * A deterministic discrete-event simulation of a receiver. The receiver's own scheduling policy
+ * (admit, nextProcess, requeue and sliceFor) is driven against a virtual clock, with no threads and
+ * no sleeping: a process makes progress only while it holds one of the receiver's run slots, is due
+ * to complete once it has held them for 'work' milliseconds of virtual time, and the clock jumps
+ * straight to the next arrival, completion or end of slice. This follows the same
+ * dispatch loop as ModRegReceiver, so the order of completions and the scheduling metrics match a
+ * real run of the same workload, but a day of registrations takes seconds.
+ *
+ * A receiver given to a Simulation takes its time from the simulation's clock from then on, and
+ * should not also be run for real.
+ */
+public class Simulation {
+
+    // something due to happen at a point in virtual time; seq breaks ties in the order they were scheduled
+    private static final class Event {
+        final long at;
+        final long seq;
+        final ModuleRegister process;
+
+        Event(long at, long seq, ModuleRegister process) {
+            this.at = at;
+            this.seq = seq;
+            this.process = process;
+        }
+    }
+
+    private static final Comparator<Event> BY_TIME =
+            Comparator.<Event>comparingLong(e -> e.at).thenComparingLong(e -> e.seq);
+
+    private final ModRegReceiver receiver;
+    private final List<Event> arrivals = new ArrayList<>();
+    private final PriorityQueue<Event> completions = new PriorityQueue<>(BY_TIME);
+    private long now; // virtual time in nanoseconds
+    private long seq;
+    private int nextArrival;
+    private Consumer<? super ModuleRegister> onComplete;
+
+    /**
+     * Creates a simulation of the given receiver, whose clock is replaced by the simulation's.
+     *
+     * @param receiver the receiver whose policy is simulated
+     * @throws IllegalArgumentException if the receiver dispatches on threads of its own
+     */
+    public Simulation(ModRegReceiver receiver) {
+        if (receiver instanceof WorkStealingReceiver) {
+            throw new IllegalArgumentException("a WorkStealingReceiver dispatches on its own threads and cannot be simulated");
+        }
+        this.receiver = receiver;
+        receiver.setClock(() -> now);
+    }
+
+    /**
+     * Adds a process that arrives at the given virtual time. Processes arriving at the same time
+     * are admitted in the order they were added.
+     *
+     * @param m the process
+     * @param atMillis its arrival time in milliseconds since the start of the simulation
+     */
+    public void add(ModuleRegister m, long atMillis) {
+        arrivals.add(new Event(TimeUnit.MILLISECONDS.toNanos(atMillis), seq++, m));
+    }
+
+    /**
+     * The current virtual time.
+     *
+     * @return milliseconds since the start of the simulation
+     */
+    public long getTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(now);
+    }
+
+    /**
+     * Runs the simulation until every process added has completed.
+     *
+     * @return the completed processes, in the order they completed
+     */
+    public List<ModuleRegister> run() {
+        List<ModuleRegister> results = new ArrayList<>();
+        run(results::add);
+        return results;
+    }
+
+    /**
+     * Runs the simulation until every process added has completed, handing each completed process
+     * to the given consumer instead of keeping them all, so very large workloads need not fit in memory.
+     *
+     * @param onComplete told about each process as it completes
+     */
+    public void run(Consumer<? super ModuleRegister> onComplete) {
+        this.onComplete = onComplete;
+        arrivals.sort(BY_TIME);
+        SchedulerMetrics metrics = receiver.getMetrics();
+
+        int slots = receiver.getRunSlots();
+        TraceRecorder trace = receiver.getTrace();
+        receiver.dispatchStarted();
+        List<ModuleRegister> held = new ArrayList<>();
+        List<Long> sliceEnds = new ArrayList<>();
+
+        while (true) {
+            collectEvents();
+            // free the slots of completed processes, and preempt and requeue those whose slice is over
+            for (int i = 0; i < held.size(); ) {
+                ModuleRegister process = held.get(i);
+                if (process.isComplete() || sliceEnds.get(i) <= now) {
+                    held.remove(i);
+                    sliceEnds.remove(i);
+                    if (!process.isComplete()) {
+                        process.markPreempted(now);
+                        trace.record(TraceRecorder.Event.REQUEUE, process, now);
+                        receiver.requeue(process);
+                    }
+                } else {
+                    i++;
+                }
+            }
+            // give free slots to the next processes
+            while (held.size() < slots) {
+                ModuleRegister process = receiver.nextProcess();
+                if (process == null) {
+                    break;
+                }
+                if (process.isComplete()) {
+                    continue;
+                }
+                process.markDispatched(now);
+                trace.record(TraceRecorder.Event.DISPATCH, process, now);
+                if (process.getSlices() > 1) {
+                    process.markInterrupted();
+                    trace.record(TraceRecorder.Event.INTERRUPT, process, now);
+                }
+                metrics.recordDispatch();
+
+                long slice = TimeUnit.MILLISECONDS.toNanos(receiver.sliceFor(process));
+                long left = TimeUnit.MILLISECONDS.toNanos(process.getWork()) - process.getRunNanos();
+                held.add(process);
+                if (left <= slice) {
+                    // the rest of its work fits in this slice, so it completes before the slice ends
+                    completions.add(new Event(now + left, seq++, process));
+                    sliceEnds.add(Long.MAX_VALUE);
+                } else {
+                    sliceEnds.add(now + slice);
+                }
+            }
+
+            long next = nextEventTime();
+            for (long end : sliceEnds) {
+                next = Math.min(next, end);
+            }
+            if (next == Long.MAX_VALUE) {
+                break;
+            }
+            now = next;
+        }
+        arrivals.clear();
+        nextArrival = 0;
+        receiver.dispatchStopped();
+    }
+
+    // the time of the next arrival or completion, or Long.MAX_VALUE if there are none
+    private long nextEventTime() {
+        long next = Long.MAX_VALUE;
+        if (nextArrival < arrivals.size()) {
+            next = arrivals.get(nextArrival).at;
+        }
+        Event c = completions.peek();
+        if (c != null && c.at < next) {
+            next = c.at;
+        }
+        return next;
+    }
+
+    // complete everything due by now, then admit everything that has arrived by now
+    private void collectEvents() {
+        SchedulerMetrics metrics = receiver.getMetrics();
+        while (!completions.isEmpty() && completions.peek().at <= now) {
+            Event e = completions.poll();
+            ModuleRegister m = e.process;
+            m.finish(e.at, e.at - m.getFirstDispatchNanos());
+            m.markPreempted(e.at);
+            receiver.getTrace().record(TraceRecorder.Event.COMPLETE, m, e.at);
+            metrics.recordCompletion(m);
+            onComplete.accept(m);
+            receiver.collected(m);
+        }
+        while (nextArrival < arrivals.size() && arrivals.get(nextArrival).at <= now) {
+            ModuleRegister m = arrivals.get(nextArrival).process;
+            // let the arrival be collected once admitted
+            arrivals.set(nextArrival++, null);
+            m.markArrival(now);
+            receiver.getTrace().record(TraceRecorder.Event.ENQUEUE, m, now);
+            metrics.recordArrival(m);
+            receiver.admit(m);
+        }
+    }
+}
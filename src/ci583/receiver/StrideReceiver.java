@@ -0,0 +1,159 @@
+package ci583.receiver;
+
+import java.util.Arrays;
+
+/**
+ * The Stride Receiver, a proportional-share scheduler. Each priority is given a weight, and over
+ * time the slices handed out to each priority are in proportion to the weights of the priorities
+ * that have processes waiting, so LOW processes get a predictable share however busy the receiver
+ * is instead of starving as they can with the strict PReceiver.
+ *
+ * Each priority has a stride, inversely proportional to its weight, and a pass value. The next
+ * process comes from the waiting priority with the lowest pass, which then advances by its stride.
+ * Within a priority processes take turns in round robin order. With only three priorities this
+ * costs O(1) per dispatch. A priority that has had nothing waiting rejoins at the current pass, so
+ * it cannot save up slices while it is idle.
+ */
+public class StrideReceiver extends ModRegReceiver {
+    /** The pass a priority of weight 1 advances by for each slice. */
+    private static final long STRIDE1 = 1L << 20;
+
+    private static final ModuleRegister.PRIORITY[] PRIORITIES = ModuleRegister.PRIORITY.values();
+
+    // one FIFO per priority, indexed by ordinal
+    private final RunQueue<ModuleRegister>[] queues;
+    private final long[] weights;
+    private final long[] strides;
+    private final long[] passes;
+    // the pass of the priority that was dispatched last
+    private long globalPass;
+
+    /**
+     * Creates a Stride receiver with the default weights.
+     *
+     * @param quantum
+     */
+    public StrideReceiver(long quantum) {
+        this(quantum, ExecutionMode.PLATFORM);
+    }
+
+    /**
+     * Creates a Stride receiver with the default weights that runs its processes in the given
+     * execution mode. The default weight of a priority is 10 less its value, so HIGH, MED and
+     * LOW get 9, 5 and 1 shares.
+     *
+     * @param quantum
+     * @param mode whether processes run on platform or virtual threads
+     */
+    public StrideReceiver(long quantum, ExecutionMode mode) {
+        this(quantum, mode, defaultWeights());
+    }
+
+    /**
+     * Creates a Stride receiver with the given weights.
+     *
+     * @param quantum
+     * @param mode whether processes run on platform or virtual threads
+     * @param weights the shares of HIGH, MED and LOW, indexed by ordinal
+     * @throws IllegalArgumentException if there is not one positive weight per priority
+     */
+    public StrideReceiver(long quantum, ExecutionMode mode, long[] weights) {
+        super(quantum, mode);
+        if (weights.length != PRIORITIES.length) {
+            throw new IllegalArgumentException("need " + PRIORITIES.length + " weights, got " + weights.length);
+        }
+        this.weights = weights.clone();
+        strides = new long[weights.length];
+        passes = new long[weights.length];
+        @SuppressWarnings("unchecked")
+        RunQueue<ModuleRegister>[] qs = (RunQueue<ModuleRegister>[]) new RunQueue<?>[weights.length];
+        queues = qs;
+        for (int i = 0; i < weights.length; i++) {
+            if (weights[i] <= 0 || weights[i] > STRIDE1) {
+                throw new IllegalArgumentException("weight of " + PRIORITIES[i] + " must be between 1 and " + STRIDE1);
+            }
+            strides[i] = STRIDE1 / weights[i];
+            queues[i] = new ArrayRunQueue<>();
+        }
+    }
+
+    private static long[] defaultWeights() {
+        long[] w = new long[PRIORITIES.length];
+        for (ModuleRegister.PRIORITY p : PRIORITIES) {
+            w[p.ordinal()] = Thread.MAX_PRIORITY + 1 - p.getVal();
+        }
+        return w;
+    }
+
+    /**
+     * The weight, or number of shares, given to a priority.
+     *
+     * @param p
+     * @return its weight
+     */
+    public long getWeight(ModuleRegister.PRIORITY p) {
+        return weights[p.ordinal()];
+    }
+
+    /**
+     * The weights of HIGH, MED and LOW, indexed by ordinal.
+     *
+     * @return a copy of the weights
+     */
+    public long[] getWeights() {
+        return Arrays.copyOf(weights, weights.length);
+    }
+
+    /**
+     * Add a process to the queue for its priority. A priority with nothing waiting rejoins at the current pass.
+     */
+    @Override
+    protected void admit(ModuleRegister m) {
+        int i = m.getPriorityLevel().ordinal();
+        if (queues[i].isEmpty()) {
+            passes[i] = Math.max(passes[i], globalPass);
+        }
+        queues[i].add(m);
+    }
+
+    /**
+     * the next process is the oldest one of the waiting priority with the lowest pass, HIGH first on a tie
+     *
+     * @return the next process, or null if nothing is waiting
+     */
+    @Override
+    protected ModuleRegister nextProcess() {
+        while (true) {
+            int next = -1;
+            for (int i = 0; i < queues.length; i++) {
+                if (!queues[i].isEmpty() && (next < 0 || passes[i] < passes[next])) {
+                    next = i;
+                }
+            }
+            if (next < 0) {
+                return null;
+            }
+            ModuleRegister m = queues[next].poll();
+            if (m.isComplete()) {
+                // finished while waiting, so it does not use up a slice of its priority's share
+                continue;
+            }
+            globalPass = passes[next];
+            passes[next] += strides[next];
+            return m;
+        }
+    }
+
+    /**
+     * a process that has had its quantum goes to the back of the queue for its priority
+     */
+    @Override
+    protected void requeue(ModuleRegister m) {
+        admit(m);
+    }
+
+    @Override
+    protected boolean remove(ModuleRegister m) {
+        return queues[m.getPriorityLevel().ordinal()].remove(m);
+    }
+}
@@ -0,0 +1,407 @@
+package ci583.receiver;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a dump written by TraceRecorder.dump() and reconstructs the timeline of each process in it:
+ * when it arrived, each slice it held a run slot for and when it completed. From those it prints a
+ * summary table and a Gantt-style chart with one row per process. Run it as a program to print
+ * both for a dump:
+ *
+ *     java ci583.receiver.TraceAnalyzer trace.bin [width]
+ *
+ * Times are in milliseconds from the first event in the dump. If the ring had wrapped before it
+ * was dumped, processes whose earlier events were overwritten start part way through, and those
+ * whose enqueue was overwritten are named by their index.
+ */
+public class TraceAnalyzer {
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    /** One slice for which a process held a run slot. */
+    public static final class Slice {
+        private final long start;
+        private final long end;
+
+        Slice(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * When the slot was granted.
+         *
+         * @return the time in nanoseconds
+         */
+        public long getStartNanos() {
+            return start;
+        }
+
+        /**
+         * When the slot was taken back, or the process completed.
+         *
+         * @return the time in nanoseconds
+         */
+        public long getEndNanos() {
+            return end;
+        }
+    }
+
+    /** Everything the dump shows about one process. */
+    public static final class Timeline {
+        private final int index;
+        private String name;
+        private long arrival = -1;
+        private long completion = -1;
+        private int interrupts;
+        private long sliceStart = -1;
+        private final List<Slice> slices = new ArrayList<>();
+
+        Timeline(int index) {
+            this.index = index;
+            this.name = "#" + index;
+        }
+
+        /**
+         * The index of the process in the recorder, the low half of its thread id.
+         *
+         * @return the index
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * The name of the process, or # and its index if its enqueue was overwritten.
+         *
+         * @return the name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * When the process was enqueued.
+         *
+         * @return the time in nanoseconds, or -1 if its enqueue was overwritten
+         */
+        public long getArrivalNanos() {
+            return arrival;
+        }
+
+        /**
+         * When the process completed.
+         *
+         * @return the time in nanoseconds, or -1 if it had not completed when the dump was taken
+         */
+        public long getCompletionNanos() {
+            return completion;
+        }
+
+        /**
+         * Whether the process completed before the dump was taken.
+         *
+         * @return true if it completed
+         */
+        public boolean isComplete() {
+            return completion >= 0;
+        }
+
+        /**
+         * The slices the process held a run slot for, in order. A slice still in progress when the
+         * dump was taken ends at the last event in the dump.
+         *
+         * @return the slices
+         */
+        public List<Slice> getSlices() {
+            return Collections.unmodifiableList(slices);
+        }
+
+        /**
+         * The number of times the process was woken up to carry on.
+         *
+         * @return the number of interrupts
+         */
+        public int getInterrupts() {
+            return interrupts;
+        }
+
+        /**
+         * The total time the process held a run slot.
+         *
+         * @return the time in nanoseconds
+         */
+        public long getRunNanos() {
+            long run = 0;
+            for (Slice s : slices) {
+                run += s.end - s.start;
+            }
+            return run;
+        }
+
+        /**
+         * The time from arrival to completion, or to the end of the dump, that the process did not
+         * hold a run slot.
+         *
+         * @param end the time the dump ends
+         * @return the time in nanoseconds, or -1 if its enqueue was overwritten
+         */
+        long getWaitingNanos(long end) {
+            if (arrival < 0) {
+                return -1;
+            }
+            return (isComplete() ? completion : end) - arrival - getRunNanos();
+        }
+
+        // whether the process was waiting for a slot at the given time
+        boolean isWaiting(long t) {
+            return arrival >= 0 && t >= arrival && (completion < 0 || t < completion) && !isRunning(t);
+        }
+
+        // whether the process held a slot at the given time
+        boolean isRunning(long t) {
+            for (Slice s : slices) {
+                if (t >= s.start && t < s.end) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private final long dropped;
+    private final long start;
+    private final long end;
+    private final int events;
+    private final List<Timeline> timelines;
+
+    /**
+     * Reads a dump.
+     *
+     * @param file a file written by TraceRecorder.dump()
+     * @throws IOException if it cannot be read or is not a trace dump
+     */
+    public TraceAnalyzer(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != TraceRecorder.MAGIC) {
+                throw new IOException(file + " is not a trace dump");
+            }
+            dropped = in.readLong();
+            events = in.readInt();
+            long[] times = new long[events];
+            int[] indices = new int[events];
+            TraceRecorder.Event[] kinds = new TraceRecorder.Event[events];
+            for (int i = 0; i < events; i++) {
+                times[i] = in.readLong();
+                indices[i] = in.readInt();
+                kinds[i] = TraceRecorder.event(in.readShort());
+                in.readShort();
+            }
+            Map<Integer, Timeline> byIndex = new HashMap<>();
+            List<Timeline> all = new ArrayList<>();
+            // events are dumped in the order their slots were taken, which on different threads
+            // can differ slightly from the order of their times, so go by time
+            Integer[] order = new Integer[events];
+            for (int i = 0; i < events; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Long.compare(times[a], times[b]));
+            for (int i : order) {
+                Timeline t = byIndex.get(indices[i]);
+                if (t == null) {
+                    t = new Timeline(indices[i]);
+                    byIndex.put(indices[i], t);
+                    all.add(t);
+                }
+                apply(t, kinds[i], times[i]);
+            }
+            int names = in.readInt();
+            for (int i = 0; i < names; i++) {
+                Timeline t = byIndex.get(in.readInt());
+                String name = in.readUTF();
+                if (t != null) {
+                    t.name = name;
+                }
+            }
+            start = events == 0 ? 0 : times[order[0]];
+            end = events == 0 ? 0 : times[order[events - 1]];
+            for (Timeline t : all) {
+                if (t.sliceStart >= 0) {
+                    t.slices.add(new Slice(t.sliceStart, end));
+                    t.sliceStart = -1;
+                }
+            }
+            timelines = Collections.unmodifiableList(all);
+        }
+    }
+
+    private static void apply(Timeline t, TraceRecorder.Event kind, long time) {
+        switch (kind) {
+            case ENQUEUE:
+                t.arrival = time;
+                break;
+            case DISPATCH:
+                t.sliceStart = time;
+                break;
+            case INTERRUPT:
+                t.interrupts++;
+                break;
+            case REQUEUE:
+            case COMPLETE:
+                if (t.sliceStart >= 0) {
+                    t.slices.add(new Slice(t.sliceStart, time));
+                    t.sliceStart = -1;
+                }
+                if (kind == TraceRecorder.Event.COMPLETE) {
+                    t.completion = time;
+                }
+                break;
+        }
+    }
+
+    /**
+     * The timeline of each process in the dump, in the order of their first event.
+     *
+     * @return the timelines
+     */
+    public List<Timeline> getTimelines() {
+        return timelines;
+    }
+
+    /**
+     * The number of events in the dump.
+     *
+     * @return the number of events
+     */
+    public int getEvents() {
+        return events;
+    }
+
+    /**
+     * The time of the first event in the dump, from which the summary and chart measure.
+     *
+     * @return the time in nanoseconds
+     */
+    public long getStartNanos() {
+        return start;
+    }
+
+    /**
+     * The time of the last event in the dump.
+     *
+     * @return the time in nanoseconds
+     */
+    public long getEndNanos() {
+        return end;
+    }
+
+    /**
+     * The number of events recorded before the oldest in the dump, which had been overwritten.
+     *
+     * @return the number overwritten
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * A table with a row for each process: arrival, first dispatch and completion, in milliseconds
+     * from the start of the dump, the number of slices and interrupts, and the time spent holding
+     * a run slot and waiting for one.
+     *
+     * @return the table
+     */
+    public String summary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-12s %10s %10s %10s %7s %7s %10s %10s%n",
+                "process", "arrival", "first", "complete", "slices", "ints", "run", "wait"));
+        for (Timeline t : timelines) {
+            sb.append(String.format("%-12s %10s %10s %10s %7d %7d %10.3f %10s%n", t.name,
+                    millis(t.arrival),
+                    millis(t.slices.isEmpty() ? -1 : t.slices.get(0).start),
+                    millis(t.completion),
+                    t.slices.size(), t.interrupts,
+                    t.getRunNanos() / NANOS_PER_MILLI,
+                    t.arrival < 0 ? "-" : String.format("%.3f", t.getWaitingNanos(end) / NANOS_PER_MILLI)));
+        }
+        if (dropped > 0) {
+            sb.append(dropped).append(" earlier events were overwritten").append(System.lineSeparator());
+        }
+        return sb.toString();
+    }
+
+    private String millis(long t) {
+        return t < 0 ? "-" : String.format("%.3f", (t - start) / NANOS_PER_MILLI);
+    }
+
+    /**
+     * A Gantt-style chart with a row for each process, with time split into the given number of
+     * columns. A column is # if the process held a run slot at any point in it, . if it was only
+     * waiting for one, and blank before it arrived or after it completed.
+     *
+     * @param width the number of columns
+     * @return the chart
+     */
+    public String gantt(int width) {
+        if (width < 1) {
+            throw new IllegalArgumentException("width must be positive: " + width);
+        }
+        long span = Math.max(1, end - start);
+        int nameWidth = 7;
+        for (Timeline t : timelines) {
+            nameWidth = Math.max(nameWidth, t.name.length());
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-" + nameWidth + "s |%s| %.3fms, %d columns of %.3fms%n", "process",
+                " ".repeat(width), span / NANOS_PER_MILLI, width, span / NANOS_PER_MILLI / width));
+        char[] row = new char[width];
+        for (Timeline t : timelines) {
+            for (int c = 0; c < width; c++) {
+                long from = start + span * c / width;
+                long to = start + span * (c + 1) / width;
+                row[c] = ' ';
+                for (Slice s : t.slices) {
+                    // a slice too short to cover a column boundary still shows in its column
+                    if (s.start < to && (s.end > from || s.start == s.end && s.start >= from)) {
+                        row[c] = '#';
+                        break;
+                    }
+                }
+                if (row[c] == ' ' && (t.isWaiting(from) || t.isWaiting(to - 1))) {
+                    row[c] = '.';
+                }
+            }
+            sb.append(String.format("%-" + nameWidth + "s |", t.name)).append(row).append('|')
+                    .append(System.lineSeparator());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Prints the summary and the chart for a dump.
+     *
+     * @param args the dump file, and optionally the width of the chart, 80 columns if not given
+     * @throws IOException if the dump cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("usage: TraceAnalyzer <dump> [width]");
+            System.exit(2);
+        }
+        TraceAnalyzer a = new TraceAnalyzer(Paths.get(args[0]));
+        int width = args.length > 1 ? Integer.parseInt(args[1]) : 80;
+        System.out.printf("%d events over %.3fms%n%n", a.getEvents(), (a.end - a.start) / NANOS_PER_MILLI);
+        System.out.println(a.summary());
+        System.out.print(a.gantt(width));
+    }
+}
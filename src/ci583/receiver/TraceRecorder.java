@@ -0,0 +1,185 @@
+package ci583.receiver;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An always-on recorder of scheduling events, kept by every receiver, so that what a receiver did
+ * can be looked at afterwards without adding print statements to it. Each event is the time, the
+ * kind of event and the index of the process, its thread id, written into a fixed ring of the most
+ * recent events.
+ * Recording an event takes a slot with one atomic increment and writes three longs, with no locks
+ * and no allocation, so it can be done from the dispatcher and worker threads at once; once the
+ * ring is full the oldest events are overwritten.
+ *
+ * dump() writes the events in the ring to a file, with the name of each process, while recording
+ * carries on. TraceAnalyzer reads a dump back and reconstructs what each process did.
+ *
+ * Each slot holds a sequence number, written after the rest of the slot, so a dump skips a slot
+ * that is being written or has been overwritten since it was first read.
+ */
+public class TraceRecorder {
+    /** The number of events kept when none is given. */
+    public static final int DEFAULT_CAPACITY = 1 << 14;
+
+    /** The kinds of event recorded. */
+    public enum Event {
+        /** The process was enqueued on the receiver. */
+        ENQUEUE,
+        /** The process was given a run slot, either to start it or to carry on. */
+        DISPATCH,
+        /** The process was woken up to carry on, just after being dispatched. */
+        INTERRUPT,
+        /** The run slot was taken back at the end of a slice and the process went back in the queue. */
+        REQUEUE,
+        /** The process finished its work. */
+        COMPLETE
+    }
+
+    static final int MAGIC = 0x4D525431; // MRT1
+    private static final Event[] EVENTS = Event.values();
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final int mask;
+    // three longs per event: the sequence number plus one (0 while it is being written), the time,
+    // and the kind of event in the high half and the process index in the low half
+    private final long[] slots;
+    // the name of the process of each enqueue event, so a dump can name it without keeping the
+    // process itself alive; the process's id is in the event
+    private final String[] names;
+    private final AtomicLong next = new AtomicLong();
+
+    /**
+     * Creates a recorder that keeps the most recent DEFAULT_CAPACITY events.
+     */
+    public TraceRecorder() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a recorder that keeps the given number of most recent events.
+     *
+     * @param capacity a power of two
+     * @throws IllegalArgumentException if the capacity is not a power of two
+     */
+    public TraceRecorder(int capacity) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+        mask = capacity - 1;
+        slots = new long[capacity * 3];
+        names = new String[capacity];
+    }
+
+    /**
+     * Records an event.
+     *
+     * @param event the kind of event
+     * @param m the process it happened to
+     * @param now when it happened, from the receiver's clock
+     */
+    public void record(Event event, ModuleRegister m, long now) {
+        long seq = next.getAndIncrement();
+        int slot = (int) (seq & mask);
+        int i = slot * 3;
+        SLOTS.setOpaque(slots, i, 0L);
+        // a dump that sees the new time or kind must also see the slot marked as being written
+        VarHandle.storeStoreFence();
+        slots[i + 1] = now;
+        slots[i + 2] = (long) event.ordinal() << 32 | (m.threadId() & 0xFFFFFFFFL);
+        names[slot] = event == Event.ENQUEUE ? m.getName() : null;
+        SLOTS.setRelease(slots, i, seq + 1);
+    }
+
+    /**
+     * The number of events this recorder keeps.
+     *
+     * @return the capacity
+     */
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * The number of events recorded so far, including those since overwritten.
+     *
+     * @return the number recorded
+     */
+    public long getRecorded() {
+        return next.get();
+    }
+
+    /**
+     * Writes the events in the ring, oldest first, to the given file. Each event is 16 bytes: the
+     * time, the process index, the ordinal of the kind of event, and two unused bytes. The events
+     * follow a header of the magic number, the number of events overwritten before the oldest, and
+     * the number of events, and are followed by the number of names and each process index with
+     * its name.
+     *
+     * @param file the file to write, which is replaced if it exists
+     * @return the number of events written
+     * @throws IOException if the file cannot be written
+     */
+    public int dump(Path file) throws IOException {
+        long end = next.get();
+        int capacity = mask + 1;
+        long start = Math.max(0, end - capacity);
+        long[] times = new long[capacity];
+        long[] kinds = new long[capacity];
+        String[] named = new String[capacity];
+        int n = 0;
+        for (long seq = start; seq < end; seq++) {
+            int slot = (int) (seq & mask);
+            int i = slot * 3;
+            if ((long) SLOTS.getAcquire(slots, i) != seq + 1) {
+                continue;
+            }
+            long time = slots[i + 1];
+            long kind = slots[i + 2];
+            String name = names[slot];
+            VarHandle.loadLoadFence();
+            if ((long) SLOTS.getVolatile(slots, i) != seq + 1) {
+                // overwritten while being read
+                continue;
+            }
+            times[n] = time;
+            kinds[n] = kind;
+            named[n++] = name;
+        }
+        int names = 0;
+        for (int j = 0; j < n; j++) {
+            if (named[j] != null) {
+                names++;
+            }
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeLong(start);
+            out.writeInt(n);
+            for (int j = 0; j < n; j++) {
+                out.writeLong(times[j]);
+                out.writeInt((int) kinds[j]);
+                out.writeShort((int) (kinds[j] >>> 32));
+                out.writeShort(0);
+            }
+            out.writeInt(names);
+            for (int j = 0; j < n; j++) {
+                if (named[j] != null) {
+                    out.writeInt((int) kinds[j]);
+                    out.writeUTF(named[j]);
+                }
+            }
+        }
+        return n;
+    }
+
+    static Event event(int ordinal) {
+        return EVENTS[ordinal];
+    }
+}
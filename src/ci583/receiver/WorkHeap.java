@@ -0,0 +1,148 @@
+package ci583.receiver;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of processes keyed on a long, such as remaining work, with O(log n) add and
+ * poll. Processes with equal keys come out in the order they were added. Only used by the
+ * dispatcher thread.
+ */
+public class WorkHeap {
+    private ModuleRegister[] heap = new ModuleRegister[16];
+    private long[] keys = new long[16];
+    private long[] order = new long[16]; // insertion order, to break ties
+    private long added;
+    private int size;
+
+    /**
+     * Adds a process with the given key.
+     *
+     * @param m the process, which must not already be in this heap
+     * @param key
+     */
+    public void add(ModuleRegister m, long key) {
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size * 2);
+            keys = Arrays.copyOf(keys, size * 2);
+            order = Arrays.copyOf(order, size * 2);
+        }
+        set(size, m, key, added++);
+        siftUp(size++);
+    }
+
+    /**
+     * The process with the smallest key, left in the heap.
+     *
+     * @return the top of the heap, or null if it is empty
+     */
+    public ModuleRegister peek() {
+        return size == 0 ? null : heap[0];
+    }
+
+    /**
+     * Removes and returns the process with the smallest key.
+     *
+     * @return the top of the heap, or null if it is empty
+     */
+    public ModuleRegister poll() {
+        if (size == 0) {
+            return null;
+        }
+        ModuleRegister top = heap[0];
+        removeAt(0);
+        return top;
+    }
+
+    /**
+     * Removes the given process if it is in this heap. This searches the heap, so it is O(n), and
+     * is only for taking out a process before its turn, such as one shed by admission control.
+     *
+     * @param m
+     * @return true if it was removed
+     */
+    public boolean remove(ModuleRegister m) {
+        for (int i = 0; i < size; i++) {
+            if (heap[i] == m) {
+                removeAt(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The number of processes in the heap.
+     *
+     * @return the size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Whether the heap is empty.
+     *
+     * @return true if it has no processes
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private void removeAt(int i) {
+        int last = --size;
+        if (i != last) {
+            set(i, heap[last], keys[last], order[last]);
+            heap[last] = null;
+            siftDown(i);
+            siftUp(i);
+        } else {
+            heap[last] = null;
+        }
+    }
+
+    private boolean less(int a, int b) {
+        return keys[a] < keys[b] || (keys[a] == keys[b] && order[a] < order[b]);
+    }
+
+    private void set(int i, ModuleRegister m, long key, long seq) {
+        heap[i] = m;
+        keys[i] = key;
+        order[i] = seq;
+    }
+
+    private void swap(int a, int b) {
+        ModuleRegister m = heap[a];
+        long key = keys[a];
+        long seq = order[a];
+        set(a, heap[b], keys[b], order[b]);
+        set(b, m, key, seq);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!less(i, parent)) {
+                return;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                return;
+            }
+            if (child + 1 < size && less(child + 1, child)) {
+                child++;
+            }
+            if (!less(child, i)) {
+                return;
+            }
+            swap(i, child);
+            i = child;
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package ci583.receiver;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A multi-core Round Robin receiver. Instead of one dispatcher walking one queue, there is one lane
+ * per core, each with its own run queue and its own dispatching thread. Within a lane processes take
+ * turns in round robin order, exactly as in RRReceiver: the lane takes the process at the head of its
+ * queue, gives it a slice, and puts it back at the tail. New processes are spread over the lanes in
+ * turn, and a lane whose queue is empty steals from the head of another lane's queue, so no lane sits
+ * idle while others have work. Stealing the process that has waited longest, rather than the one
+ * just put back at the tail, keeps the round robin order fair across lanes.
+ *
+ * Each lane gives a slice to one process at a time, so the lanes are the run slots and the number of
+ * lanes, rather than getRunSlots(), is how many processes run at once. The receiver's own dispatcher
+ * only admits new processes and collects completions. Because the lanes dispatch on threads of their
+ * own, this receiver cannot be driven by a Simulation.
+ */
+public class WorkStealingReceiver extends ModRegReceiver {
+
+    // one core's run queue and the thread dispatching from it
+    private final class Lane implements Runnable {
+        // the owner takes from the head and puts back at the tail, thieves also take from the head
+        final ConcurrentLinkedDeque<ModuleRegister> queue = new ConcurrentLinkedDeque<>();
+        final int index;
+        volatile Thread thread;
+        // the process this lane is currently giving a slice to, so its completion can wake the lane
+        volatile ModuleRegister current;
+
+        Lane(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public void run() {
+            long idleNanos = TimeUnit.MILLISECONDS.toNanos(quantum);
+            while (!stopping) {
+                ModuleRegister process = queue.pollFirst();
+                if (process == null) {
+                    process = steal(index);
+                }
+                if (process == null) {
+                    // woken by admit, or looks again after a quantum in case there is something to steal
+                    LockSupport.parkNanos(this, idleNanos);
+                    continue;
+                }
+                if (process.isComplete()) {
+                    if (!started.remove(process)) {
+                        // completed outside the receiver, so it will never be collected
+                        dropped();
+                    }
+                    continue;
+                }
+                boolean fresh = process.getRunState() == Thread.State.NEW;
+                current = process;
+                try {
+                    if (!begin(process)) {
+                        // shed by admission control, or already terminated
+                        dropped();
+                        continue;
+                    }
+                    if (fresh) {
+                        started.add(process);
+                    }
+                    awaitSlice(process);
+                } finally {
+                    current = null;
+                }
+                if (process.isComplete()) {
+                    started.remove(process);
+                } else {
+                    preempt(process);
+                    queue.addLast(process);
+                }
+            }
+        }
+    }
+
+    private final Lane[] lanes;
+    private final AtomicLong steals = new AtomicLong();
+    private volatile boolean stopping;
+    // processes admitted and neither collected as complete nor dropped by a lane
+    private final AtomicInteger outstanding = new AtomicInteger();
+    // processes the lanes have started and may still find in their queues, so a lane can tell one
+    // that completed after being put back, which is collected, from one completed elsewhere
+    private final Set<ModuleRegister> started = ConcurrentHashMap.newKeySet();
+    // the lane the next admitted process goes to
+    private int nextLane;
+
+    /**
+     * Creates a work-stealing receiver with one lane per available processor.
+     *
+     * @param quantum
+     */
+    public WorkStealingReceiver(long quantum) {
+        this(quantum, ExecutionMode.PLATFORM, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a work-stealing receiver with the given number of lanes.
+     *
+     * @param quantum
+     * @param mode whether processes run on platform or virtual threads
+     * @param parallelism the number of lanes, each with its own dispatching thread
+     */
+    public WorkStealingReceiver(long quantum, ExecutionMode mode, int parallelism) {
+        super(quantum, mode);
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+        }
+        lanes = new Lane[parallelism];
+        for (int i = 0; i < parallelism; i++) {
+            lanes[i] = new Lane(i);
+        }
+    }
+
+    /**
+     * The number of lanes.
+     *
+     * @return the parallelism
+     */
+    public int getParallelism() {
+        return lanes.length;
+    }
+
+    /**
+     * The number of processes lanes have taken from other lanes' queues.
+     *
+     * @return the number of steals
+     */
+    public long getSteals() {
+        return steals.get();
+    }
+
+    /**
+     * new processes go to each lane in turn, waking it in case it is idle
+     */
+    @Override
+    protected void admit(ModuleRegister m) {
+        outstanding.incrementAndGet();
+        Lane lane = lanes[nextLane];
+        nextLane = (nextLane + 1) % lanes.length;
+        lane.queue.addLast(m);
+        LockSupport.unpark(lane.thread);
+    }
+
+    /**
+     * the lanes do all the dispatching, so the receiver's own dispatcher never has anything to run
+     */
+    @Override
+    protected ModuleRegister nextProcess() {
+        return null;
+    }
+
+    @Override
+    protected void requeue(ModuleRegister m) {
+        throw new IllegalStateException("processes are requeued by their lanes");
+    }
+
+    /**
+     * a shed process is only taken out of a lane's queue if no lane has taken it first
+     */
+    @Override
+    protected boolean remove(ModuleRegister m) {
+        for (Lane lane : lanes) {
+            if (lane.queue.removeFirstOccurrence(m)) {
+                outstanding.decrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    protected boolean isIdle() {
+        return outstanding.get() == 0;
+    }
+
+    @Override
+    protected void collected(ModuleRegister m) {
+        outstanding.decrementAndGet();
+    }
+
+    // a lane has thrown away a process that will never be collected
+    private void dropped() {
+        outstanding.decrementAndGet();
+        wakeDispatcher();
+    }
+
+    @Override
+    protected void dispatchStarted() {
+        stopping = false;
+        for (Lane lane : lanes) {
+            Thread t = new Thread(lane, getClass().getSimpleName() + "-lane-" + lane.index);
+            t.setDaemon(true);
+            lane.thread = t;
+            t.start();
+        }
+    }
+
+    @Override
+    protected void dispatchStopped() {
+        stopping = true;
+        for (Lane lane : lanes) {
+            LockSupport.unpark(lane.thread);
+        }
+        boolean interrupted = false;
+        for (Lane lane : lanes) {
+            while (true) {
+                try {
+                    lane.thread.join();
+                    break;
+                } catch (InterruptedException e) {
+                    // every lane must stop before the receiver does, so keep waiting
+                    interrupted = true;
+                }
+            }
+            // anything left is a process that completed just after being put back
+            lane.queue.clear();
+        }
+        started.clear();
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    protected void signalComplete(ModuleRegister m) {
+        super.signalComplete(m);
+        // wake the lane giving it a slice, so it moves on straight away
+        for (Lane lane : lanes) {
+            if (lane.current == m) {
+                LockSupport.unpark(lane.thread);
+            }
+        }
+    }
+
+    // take a process from the head of another lane's queue, starting with the next lane along
+    private ModuleRegister steal(int thief) {
+        for (int i = 1; i < lanes.length; i++) {
+            ModuleRegister m = lanes[(thief + i) % lanes.length].queue.pollFirst();
+            if (m != null) {
+                steals.incrementAndGet();
+                return m;
+            }
+        }
+        return null;
+    }
+
+    // park the lane until the slice is over or the process completes
+    private void awaitSlice(ModuleRegister process) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(sliceFor(process));
+        long remaining;
+        while (!process.isComplete() && (remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(this, remaining);
+        }
+    }
+}
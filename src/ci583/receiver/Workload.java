@@ -0,0 +1,249 @@
+package ci583.receiver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A generator of synthetic registration streams, for load testing a receiver with something
+ * closer to registration week than a fixed batch. Each stream is a list of processes and the times
+ * they arrive, drawn from a seeded random source so the same seed always gives the same stream.
+ *
+ * Arrivals are either POISSON, with exponentially distributed gaps at the given mean rate, or
+ * BURSTY, in which bursts of arrivals at a multiple of the rate alternate with calmer periods,
+ * the lengths of both exponentially distributed, while the long-run mean rate stays the same.
+ *
+ * The work of each process follows a bounded Pareto distribution, so most registrations are short
+ * but a few take many times as long: the shape alpha sets how heavy the tail is, lower being
+ * heavier. Priorities are drawn from a mix of HIGH, MED and LOW with the given weights.
+ */
+public class Workload {
+    /** How arrivals are spread over time. */
+    public enum Arrivals {
+        /** Independent arrivals at a steady mean rate. */
+        POISSON,
+        /** Bursts of arrivals at a multiple of the rate, between calmer periods. */
+        BURSTY
+    }
+
+    /** A process and when it arrives. */
+    public static final class Arrival {
+        private final long at;
+        private final ModuleRegister process;
+
+        Arrival(long at, ModuleRegister process) {
+            this.at = at;
+            this.process = process;
+        }
+
+        /**
+         * When the process arrives.
+         *
+         * @return the time in nanoseconds from the start of the stream
+         */
+        public long getAtNanos() {
+            return at;
+        }
+
+        /**
+         * The process, not yet enqueued.
+         *
+         * @return the process
+         */
+        public ModuleRegister getProcess() {
+            return process;
+        }
+    }
+
+    private static final ModuleRegister.PRIORITY[] PRIORITIES = ModuleRegister.PRIORITY.values();
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final double ratePerSecond;
+    private final long seed;
+
+    private Arrivals arrivals = Arrivals.POISSON;
+    private double burstFactor;
+    private double meanBurstNanos;
+    private double meanCalmNanos;
+
+    private long minWork = 5;
+    private long maxWork = 1000;
+    private double alpha = 1.5;
+
+    private double[] mix = {0.2, 0.5, 0.3};
+
+    /**
+     * Creates a generator of Poisson arrivals at the given rate. The work of each process is
+     * between 5ms and a second with alpha 1.5, and priorities are 20% HIGH, 50% MED and 30% LOW.
+     *
+     * @param ratePerSecond the mean number of arrivals a second
+     * @param seed seeds every random choice
+     * @throws IllegalArgumentException if the rate is not positive
+     */
+    public Workload(double ratePerSecond, long seed) {
+        if (!(ratePerSecond > 0)) {
+            throw new IllegalArgumentException("rate must be positive: " + ratePerSecond);
+        }
+        this.ratePerSecond = ratePerSecond;
+        this.seed = seed;
+    }
+
+    /**
+     * Make arrivals BURSTY: bursts at factor times the rate, lasting meanBurst on average, between
+     * calmer periods lasting meanCalm on average at whatever rate keeps the long-run mean at the
+     * rate given to the constructor. A factor of (meanBurst + meanCalm) / meanBurst leaves nothing
+     * to arrive between bursts.
+     *
+     * @param factor how many times the mean rate arrivals come during a burst
+     * @param meanBurst the mean length of a burst in milliseconds
+     * @param meanCalm the mean length of the periods between bursts in milliseconds
+     * @throws IllegalArgumentException if the factor is less than 1, a length is not positive, or
+     * the bursts alone would exceed the mean rate
+     */
+    public void setBursty(double factor, long meanBurst, long meanCalm) {
+        if (!(factor >= 1) || meanBurst <= 0 || meanCalm <= 0) {
+            throw new IllegalArgumentException("need a factor of at least 1 and positive lengths, got "
+                    + factor + ", " + meanBurst + " and " + meanCalm);
+        }
+        if (factor * meanBurst > meanBurst + meanCalm) {
+            throw new IllegalArgumentException("bursts of " + factor + " times the rate for " + meanBurst
+                    + "ms in every " + (meanBurst + meanCalm) + "ms exceed the mean rate");
+        }
+        this.arrivals = Arrivals.BURSTY;
+        this.burstFactor = factor;
+        this.meanBurstNanos = TimeUnit.MILLISECONDS.toNanos(meanBurst);
+        this.meanCalmNanos = TimeUnit.MILLISECONDS.toNanos(meanCalm);
+    }
+
+    /**
+     * Draw the work of each process from a Pareto distribution with the given shape, bounded
+     * to the given range. With min equal to max every process has the same work.
+     *
+     * @param min the least work in milliseconds
+     * @param max the most work in milliseconds
+     * @param alpha the shape, lower for a heavier tail; around 1 to 2 is typical of service times
+     * @throws IllegalArgumentException if min is not positive, max is less than min or alpha is
+     * not positive
+     */
+    public void setWork(long min, long max, double alpha) {
+        if (min < 1 || max < min || !(alpha > 0)) {
+            throw new IllegalArgumentException("need 0 < min <= max and a positive alpha, got "
+                    + min + ", " + max + " and " + alpha);
+        }
+        this.minWork = min;
+        this.maxWork = max;
+        this.alpha = alpha;
+    }
+
+    /**
+     * Draw priorities in proportion to the given weights, which need not add up to 1.
+     *
+     * @param high the weight of HIGH
+     * @param med the weight of MED
+     * @param low the weight of LOW
+     * @throws IllegalArgumentException if a weight is negative or they are all 0
+     */
+    public void setPriorityMix(double high, double med, double low) {
+        if (!(high >= 0 && med >= 0 && low >= 0) || high + med + low == 0) {
+            throw new IllegalArgumentException("need non-negative weights, not all 0, got "
+                    + high + ", " + med + " and " + low);
+        }
+        double total = high + med + low;
+        this.mix = new double[]{high / total, med / total, low / total};
+    }
+
+    /**
+     * How arrivals are spread over time.
+     *
+     * @return POISSON unless setBursty() has been called
+     */
+    public Arrivals getArrivals() {
+        return arrivals;
+    }
+
+    /**
+     * The long-run mean rate of arrivals.
+     *
+     * @return arrivals a second
+     */
+    public double getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    /**
+     * Generates a stream of processes named S0, S1 and so on, in the order they arrive.
+     *
+     * @param n the number of processes
+     * @return the processes and when they arrive
+     */
+    public List<Arrival> generate(int n) {
+        SplittableRandom random = new SplittableRandom(seed);
+        double rate = ratePerSecond / NANOS_PER_SECOND;
+        // for BURSTY, the rate in each kind of period and when the current one ends
+        double burstRate = rate * burstFactor;
+        double calmRate = arrivals == Arrivals.BURSTY
+                ? (rate * (meanBurstNanos + meanCalmNanos) - burstRate * meanBurstNanos) / meanCalmNanos : rate;
+        boolean inBurst = false;
+        double periodEnd = arrivals == Arrivals.BURSTY ? exponential(random, meanCalmNanos) : Double.MAX_VALUE;
+
+        List<Arrival> stream = new ArrayList<>(n);
+        double t = 0;
+        while (stream.size() < n) {
+            double current = inBurst ? burstRate : calmRate;
+            double next = current > 0 ? t + exponential(random, 1 / current) : Double.MAX_VALUE;
+            if (next >= periodEnd) {
+                // gaps are memoryless, so start afresh at the end of the period
+                t = periodEnd;
+                inBurst = !inBurst;
+                periodEnd = t + exponential(random, inBurst ? meanBurstNanos : meanCalmNanos);
+                continue;
+            }
+            t = next;
+            int i = stream.size();
+            stream.add(new Arrival((long) t, new ModuleRegister("S" + i, work(random), priority(random))));
+        }
+        return stream;
+    }
+
+    /**
+     * Generates a stream and adds it to a simulation, with arrival times to the nearest millisecond.
+     *
+     * @param s the simulation
+     * @param n the number of processes
+     * @return the processes added, in the order they arrive
+     */
+    public List<ModuleRegister> addTo(Simulation s, int n) {
+        List<ModuleRegister> added = new ArrayList<>(n);
+        for (Arrival a : generate(n)) {
+            s.add(a.process, Math.round(a.at / 1e6));
+            added.add(a.process);
+        }
+        return added;
+    }
+
+    private static double exponential(SplittableRandom random, double mean) {
+        return -mean * Math.log(1 - random.nextDouble());
+    }
+
+    // the inverse of the bounded Pareto distribution function
+    private long work(SplittableRandom random) {
+        if (minWork == maxWork) {
+            return minWork;
+        }
+        double ratio = Math.pow((double) minWork / maxWork, alpha);
+        double x = minWork / Math.pow(1 - random.nextDouble() * (1 - ratio), 1 / alpha);
+        return Math.min(maxWork, Math.round(x));
+    }
+
+    private ModuleRegister.PRIORITY priority(SplittableRandom random) {
+        double u = random.nextDouble();
+        for (int p = 0; p < PRIORITIES.length - 1; p++) {
+            u -= mix[p];
+            if (u < 0) {
+                return PRIORITIES[p];
+            }
+        }
+        return PRIORITIES[PRIORITIES.length - 1];
+    }
+}
@@ -0,0 +1,217 @@
+package ci583.test;
+
+/**
+ * Tests for AdmissionControl: each policy when the receiver is full, the token-bucket rate limit,
+ * and the counters.
+ */
+
+import ci583.receiver.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestAdmissionControl {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReject() {
+        RRReceiver r = new RRReceiver(20);
+        AdmissionControl a = new AdmissionControl(3, AdmissionControl.Policy.REJECT);
+        r.setAdmissionControl(a);
+        int refused = 0;
+        for (int i = 0; i < 5; i++) {
+            try {
+                r.enqueue(new ModuleRegister("P" + i, 20));
+            } catch (RejectedExecutionException e) {
+                refused++;
+            }
+        }
+        assertEquals(2, refused);
+        assertEquals(3, a.getAdmitted());
+        assertEquals(2, a.getRejected());
+        assertEquals(3, a.getOutstanding());
+
+        assertEquals(3, r.startRegistration().size());
+        // completions make room again
+        assertEquals(0, a.getOutstanding());
+        assertEquals(3, a.getQueueDelay().getCount());
+        r.enqueue(new ModuleRegister("P5", 20));
+        assertEquals(1, a.getOutstanding());
+    }
+
+    @Test
+    public void testShedLowFirst() {
+        PReceiver r = new PReceiver(20);
+        r.setRunSlots(1);
+        AdmissionControl a = new AdmissionControl(2, AdmissionControl.Policy.SHED);
+        r.setAdmissionControl(a);
+        ModuleRegister l1 = new ModuleRegister("L1", 20, ModuleRegister.PRIORITY.LOW);
+        ModuleRegister l2 = new ModuleRegister("L2", 20, ModuleRegister.PRIORITY.LOW);
+        r.enqueue(l1);
+        r.enqueue(l2);
+        // full: a HIGH process sheds the most recent LOW one
+        r.enqueue(new ModuleRegister("H1", 20, ModuleRegister.PRIORITY.HIGH));
+        assertTrue(l2.isShed());
+        // a LOW process has nothing lower to shed, so it is rejected
+        try {
+            r.enqueue(new ModuleRegister("L3", 20, ModuleRegister.PRIORITY.LOW));
+            fail("L3 should have been rejected");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        r.enqueue(new ModuleRegister("M1", 20, ModuleRegister.PRIORITY.MED));
+        assertTrue(l1.isShed());
+
+        List<ModuleRegister> done = r.startRegistration();
+        assertEquals("[H1, M1]", Arrays.toString(done.stream().map(ModuleRegister::getName).toArray()));
+        assertEquals(2, a.getShed());
+        assertEquals(1, a.getRejected());
+        // shed processes are never started
+        assertEquals(Thread.State.NEW, l1.getRunState());
+        assertFalse(l1.isComplete());
+    }
+
+    @Test
+    public void testShedLeavesQueue() throws Exception {
+        PReceiver r = new PReceiver(20);
+        r.setRunSlots(1);
+        AdmissionControl a = new AdmissionControl(2, AdmissionControl.Policy.SHED);
+        r.setAdmissionControl(a);
+        r.startService();
+        ModuleRegister h0 = new ModuleRegister("H0", 500, ModuleRegister.PRIORITY.HIGH);
+        ModuleRegister l1 = new ModuleRegister("L1", 20, ModuleRegister.PRIORITY.LOW);
+        r.enqueue(h0);
+        r.enqueue(l1);
+        r.enqueue(new ModuleRegister("H1", 20, ModuleRegister.PRIORITY.HIGH));
+        assertTrue(l1.isShed());
+        // L1 is dropped while H0 still runs, not when strict priority would have reached it
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(300);
+        while (r.getMetrics().getDropped() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(1, r.getMetrics().getDropped());
+        assertFalse(h0.isComplete());
+        assertEquals(2, r.getMetrics().getInReceiver());
+        r.shutdown();
+        assertEquals(2, r.awaitTermination(10, TimeUnit.SECONDS).size());
+        assertEquals(Thread.State.NEW, l1.getRunState());
+    }
+
+    @Test
+    public void testBlock() throws Exception {
+        RRReceiver r = new RRReceiver(20);
+        r.setRunSlots(1);
+        AdmissionControl a = new AdmissionControl(2, AdmissionControl.Policy.BLOCK, 10_000);
+        r.setAdmissionControl(a);
+        r.startService();
+        long start = System.nanoTime();
+        List<ModuleRegister> all = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            ModuleRegister m = new ModuleRegister("P" + i, 50);
+            r.enqueue(m);
+            all.add(m);
+            assertTrue(a.getOutstanding() <= 2);
+        }
+        // the producer was held back until the first processes had completed
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 150);
+        assertTrue(a.getBlocked() >= 4);
+        assertEquals(a.getBlocked(), a.getAdmissionWait().getCount());
+        r.shutdown();
+        assertEquals(6, r.awaitTermination(10, TimeUnit.SECONDS).size());
+        assertEquals(0, a.getRejected());
+    }
+
+    @Test
+    public void testBlockTimesOut() {
+        RRReceiver r = new RRReceiver(20);
+        AdmissionControl a = new AdmissionControl(1, AdmissionControl.Policy.BLOCK, 50);
+        r.setAdmissionControl(a);
+        r.enqueue(new ModuleRegister("P1", 20));
+        long start = System.nanoTime();
+        try {
+            // nothing is running to make room
+            r.enqueue(new ModuleRegister("P2", 20));
+            fail("P2 should have been rejected");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 50);
+        assertEquals(1, a.getRejected());
+    }
+
+    @Test
+    public void testRateLimit() {
+        RRReceiver r = new RRReceiver(20);
+        AdmissionControl a = new AdmissionControl(AdmissionControl.UNBOUNDED, AdmissionControl.Policy.REJECT);
+        a.setRateLimit(10, 5);
+        r.setAdmissionControl(a);
+        int admitted = 0;
+        for (int i = 0; i < 20; i++) {
+            try {
+                r.enqueue(new ModuleRegister("P" + i, 0));
+                admitted++;
+            } catch (RejectedExecutionException e) {
+                // over the rate
+            }
+        }
+        // the burst, and perhaps one more if a tenth of a second passed
+        assertTrue("admitted " + admitted, admitted >= 5 && admitted <= 6);
+        assertEquals(20 - admitted, a.getRateLimited());
+        assertEquals(admitted, r.startRegistration().size());
+    }
+
+    @Test
+    public void testUncountedProcessFreesNoRoom() throws Exception {
+        RRReceiver r = new RRReceiver(20);
+        r.setRunSlots(2);
+        // enqueued before admission control was set, so it never took any room
+        r.enqueue(new ModuleRegister("P0", 0));
+        AdmissionControl a = new AdmissionControl(1, AdmissionControl.Policy.REJECT);
+        r.setAdmissionControl(a);
+        r.enqueue(new ModuleRegister("P1", 300));
+        r.startService();
+        Thread.sleep(100);
+        // P0 has completed, but P1 still holds the only room
+        assertEquals(1, a.getOutstanding());
+        try {
+            r.enqueue(new ModuleRegister("P2", 20));
+            fail("P2 should have been rejected");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        r.shutdown();
+        assertEquals(2, r.awaitTermination(10, TimeUnit.SECONDS).size());
+        assertEquals(0, a.getOutstanding());
+    }
+
+    @Test
+    public void testFailedEnqueueGivesBackRoom() throws Exception {
+        RRReceiver r = new RRReceiver(20);
+        AdmissionControl a = new AdmissionControl(1, AdmissionControl.Policy.REJECT);
+        r.setAdmissionControl(a);
+        Journal j = new Journal(folder.getRoot().toPath().resolve("journal"));
+        r.setJournal(j);
+        j.close();
+        try {
+            r.enqueue(new ModuleRegister("P1", 20));
+            fail("a closed journal should refuse P1");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        // P1 was admitted but never handed to the receiver, so its room is free again
+        assertEquals(0, a.getOutstanding());
+    }
+}
@@ -0,0 +1,284 @@
+package ci583.test;
+
+/**
+ * Runs many receivers with different quanta at the same time, one per thread, to check that they
+ * share no scheduler state, enqueues from many producer threads into a running receiver, and
+ * streams completions from a running receiver, to a subscriber that keeps up and one that does not.
+ */
+
+import ci583.receiver.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestConcurrentReceivers {
+
+    @Test
+    public void testIndependentQuanta() throws Exception {
+        final int receivers = 12;
+        final int processes = 5;
+        ExecutorService pool = Executors.newFixedThreadPool(receivers);
+        try {
+            List<ModRegReceiver> rs = new ArrayList<>();
+            List<Future<Long>> elapsed = new ArrayList<>();
+            for (int i = 0; i < receivers; i++) {
+                long quantum = 20 * (i + 1);
+                ModRegReceiver r = i % 3 == 0 ? new RRReceiver(quantum)
+                        : i % 3 == 1 ? new PReceiver(quantum) : new MLFQReceiver(quantum);
+                r.setRunSlots(1);
+                for (int p = 1; p <= processes; p++) {
+                    r.enqueue(new ModuleRegister("R" + i + "P" + p, 300));
+                }
+                rs.add(r);
+            }
+            for (ModRegReceiver r : rs) {
+                elapsed.add(pool.submit(() -> {
+                    long start = System.nanoTime();
+                    assertEquals(processes, r.startRegistration().size());
+                    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                }));
+            }
+            for (int i = 0; i < receivers; i++) {
+                ModRegReceiver r = rs.get(i);
+                long ms = elapsed.get(i).get(30, TimeUnit.SECONDS);
+                assertEquals(20 * (i + 1), r.getQuantum());
+                // new processes are started one quantum apart, so the last cannot start any sooner
+                assertTrue(r.getClass().getSimpleName() + " with quantum " + r.getQuantum() + " took " + ms + "ms",
+                        ms >= (processes - 1) * r.getQuantum());
+                // every slice is at least the quantum, so the smaller the quantum the more slices; the
+                // upper bound leaves room for slices a worker woke late in
+                long dispatches = r.getMetrics().getDispatches();
+                String label = r.getClass().getSimpleName() + " with quantum " + r.getQuantum() + " dispatched " + dispatches;
+                assertTrue(label, dispatches > processes);
+                assertTrue(label, dispatches <= processes * (300 / r.getQuantum() * 3 / 2 + 2));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testEnqueueWhileRunning() throws Exception {
+        final int producers = 4;
+        final int each = 25;
+        ModRegReceiver r = new RRReceiver(10, ExecutionMode.VIRTUAL);
+        r.startService();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < producers; t++) {
+            final int id = t;
+            Thread producer = new Thread(() -> {
+                for (int p = 0; p < each; p++) {
+                    r.enqueue(new ModuleRegister("T" + id + "P" + p, 20 + p));
+                }
+            });
+            producer.start();
+            threads.add(producer);
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        r.shutdown();
+        try {
+            r.enqueue(new ModuleRegister("late", 10));
+            fail("enqueue after shutdown should be refused");
+        } catch (IllegalStateException expected) {
+        }
+
+        List<ModuleRegister> done = r.awaitTermination(30, TimeUnit.SECONDS);
+        assertEquals(producers * each, done.size());
+        assertEquals(producers * each, done.stream().map(ModuleRegister::getName).distinct().count());
+        assertTrue(done.stream().allMatch(ModuleRegister::isComplete));
+    }
+
+    @Test
+    public void testStreamRegistration() throws Exception {
+        ModRegReceiver r = new RRReceiver(5, ExecutionMode.VIRTUAL);
+        r.enqueue(new ModuleRegister("long", 400));
+        r.enqueue(new ModuleRegister("short", 20));
+        Flow.Publisher<ModuleRegister> publisher = r.streamRegistration();
+
+        List<String> names = new ArrayList<>();
+        long[] receivedAt = new long[2];
+        CountDownLatch done = new CountDownLatch(1);
+        long[] completedAt = new long[1];
+        publisher.subscribe(new Flow.Subscriber<ModuleRegister>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription s) {
+                subscription = s;
+                s.request(1);
+            }
+
+            @Override
+            public void onNext(ModuleRegister m) {
+                receivedAt[names.size()] = System.nanoTime();
+                names.add(m.getName());
+                subscription.request(1);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                done.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+                completedAt[0] = System.nanoTime();
+                done.countDown();
+            }
+        });
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(List.of("short", "long"), names);
+        // short was handed over as soon as it completed, long before the batch finished
+        assertTrue(completedAt[0] - receivedAt[0] >= TimeUnit.MILLISECONDS.toNanos(300));
+
+        // a stream has only one subscriber
+        CompletableFuture<Void> second = new CompletableFuture<>();
+        publisher.subscribe(new Flow.Subscriber<ModuleRegister>() {
+            public void onSubscribe(Flow.Subscription s) {
+            }
+
+            public void onNext(ModuleRegister m) {
+            }
+
+            public void onError(Throwable t) {
+                second.completeExceptionally(t);
+            }
+
+            public void onComplete() {
+                second.complete(null);
+            }
+        });
+        try {
+            second.get(10, TimeUnit.SECONDS);
+            fail("a second subscriber should be refused");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void testSlowSubscriber() throws Exception {
+        // a subscriber that takes one process and then stops asking does not hold up the batch,
+        // and still gets every process once it asks for the rest
+        final int processes = Flow.defaultBufferSize() + 100;
+        ModRegReceiver r = new RRReceiver(5, ExecutionMode.VIRTUAL);
+        for (int i = 0; i < processes; i++) {
+            r.enqueue(new ModuleRegister("P" + i, 1));
+        }
+        List<ModuleRegister> received = new ArrayList<>();
+        CountDownLatch first = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        Flow.Subscription[] subscription = new Flow.Subscription[1];
+        r.streamRegistration().subscribe(new Flow.Subscriber<ModuleRegister>() {
+            @Override
+            public void onSubscribe(Flow.Subscription s) {
+                subscription[0] = s;
+                s.request(1);
+            }
+
+            @Override
+            public void onNext(ModuleRegister m) {
+                received.add(m);
+                first.countDown();
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                done.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+                done.countDown();
+            }
+        });
+        assertTrue(first.await(10, TimeUnit.SECONDS));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (r.getMetrics().getCompleted() < processes && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(processes, r.getMetrics().getCompleted());
+        assertEquals(1, received.size());
+
+        subscription[0].request(Long.MAX_VALUE);
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(processes, received.size());
+        assertEquals(processes, received.stream().distinct().count());
+    }
+
+    @Test
+    public void testLargeBurst() {
+        // far more completions at once than a publisher buffers, all of which come back
+        final int processes = 20_000;
+        ModRegReceiver r = new RRReceiver(1, ExecutionMode.VIRTUAL);
+        r.setRunSlots(64);
+        for (int i = 0; i < processes; i++) {
+            r.enqueue(new ModuleRegister("P" + i, 0));
+        }
+        List<ModuleRegister> done = r.startRegistration();
+        assertEquals(processes, done.size());
+        assertEquals(processes, done.stream().distinct().count());
+    }
+
+    @Test
+    public void testWorkStealing() {
+        final int lanes = 4;
+        WorkStealingReceiver r = new WorkStealingReceiver(10, ExecutionMode.VIRTUAL, lanes);
+        // new processes are dealt to the lanes in turn, so lane 0 gets all the long ones
+        for (int p = 0; p < 40; p++) {
+            r.enqueue(new ModuleRegister("P" + p, p % lanes == 0 ? 300 : 5));
+        }
+        List<ModuleRegister> done = r.startRegistration();
+
+        assertEquals(40, done.size());
+        assertEquals(40, done.stream().map(ModuleRegister::getName).distinct().count());
+        assertTrue(r.getSteals() > 0);
+        assertEquals(40, r.getMetrics().getCompleted());
+    }
+
+    @Test(timeout = 10_000)
+    public void testWorkStealingShed() {
+        WorkStealingReceiver r = new WorkStealingReceiver(10, ExecutionMode.VIRTUAL, 2);
+        r.setAdmissionControl(new AdmissionControl(2, AdmissionControl.Policy.SHED));
+        r.enqueue(new ModuleRegister("L1", 20, ModuleRegister.PRIORITY.LOW));
+        ModuleRegister l2 = new ModuleRegister("L2", 20, ModuleRegister.PRIORITY.LOW);
+        r.enqueue(l2);
+        r.enqueue(new ModuleRegister("H1", 20, ModuleRegister.PRIORITY.HIGH));
+        assertTrue(l2.isShed());
+        // the lane that drops the shed process lets the batch finish
+        List<ModuleRegister> done = r.startRegistration();
+        assertEquals(2, done.size());
+        assertFalse(done.contains(l2));
+    }
+
+    @Test(timeout = 10_000)
+    public void testWorkStealingTerminated() throws Exception {
+        ModuleRegister outside = new ModuleRegister("outside", 5);
+        outside.start(ExecutionMode.PLATFORM);
+        outside.join();
+        WorkStealingReceiver r = new WorkStealingReceiver(10, ExecutionMode.VIRTUAL, 2);
+        r.enqueue(outside);
+        r.enqueue(new ModuleRegister("P1", 20));
+        // a process run elsewhere is dropped, not waited for
+        List<ModuleRegister> done = r.startRegistration();
+        assertEquals(1, done.size());
+        assertEquals("P1", done.get(0).getName());
+    }
+}
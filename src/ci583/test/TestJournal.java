@@ -0,0 +1,167 @@
+package ci583.test;
+
+/**
+ * Tests for the Journal: recovering processes that had not been run, or were part way through
+ * when the receiver stopped, into a receiver of another kind, reading past a torn record, and
+ * compacting a full journal. A journal that is opened again without being closed stands in for a
+ * JVM that died.
+ */
+
+import ci583.receiver.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestJournal {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRecoverQueued() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("queued.journal");
+        RRReceiver rr = new RRReceiver(100);
+        rr.setJournal(new Journal(file));
+        rr.enqueue(new ModuleRegister("P1", 200, ModuleRegister.PRIORITY.MED));
+        rr.enqueue(new ModuleRegister("P2", 100, ModuleRegister.PRIORITY.LOW));
+        rr.enqueue(new ModuleRegister("P3", 300, ModuleRegister.PRIORITY.HIGH, 5000));
+
+        Journal journal = new Journal(file);
+        List<ModuleRegister> recovered = journal.getRecovered();
+        assertEquals("[P1, P2, P3]", names(recovered));
+        assertEquals(ModuleRegister.PRIORITY.LOW, recovered.get(1).getPriorityLevel());
+        assertEquals(300, recovered.get(2).getWork());
+        assertEquals(5000, recovered.get(2).getDeadline());
+
+        // rebuilt in a priority receiver, they run in priority order
+        PReceiver p = new PReceiver(100);
+        p.setRunSlots(1);
+        assertEquals(3, p.recover(journal));
+        assertEquals("[P3, P1, P2]", names(p.startRegistration()));
+        assertEquals(0, journal.getPending());
+        journal.close();
+
+        journal = new Journal(file);
+        assertTrue(journal.getRecovered().isEmpty());
+        journal.close();
+    }
+
+    @Test
+    public void testRecoverInFlight() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("inflight.journal");
+        Path copy = folder.getRoot().toPath().resolve("copy.journal");
+        RRReceiver rr = new RRReceiver(20);
+        rr.setRunSlots(1);
+        Journal journal = new Journal(file);
+        rr.setJournal(journal);
+        rr.startService();
+        rr.enqueue(new ModuleRegister("long", 2000));
+        rr.enqueue(new ModuleRegister("short", 50));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (rr.getMetrics().getCompleted() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(200);
+        // the file as it would be found if the JVM died now
+        Files.copy(file, copy);
+        rr.shutdown();
+        assertNotNull(rr.awaitTermination(10, TimeUnit.SECONDS));
+        journal.close();
+
+        Journal recovered = new Journal(copy);
+        assertEquals(1, recovered.getRecovered().size());
+        ModuleRegister m = recovered.getRecovered().get(0);
+        assertEquals("long", m.getName());
+        // it carries on with the work it had left when it was last dispatched
+        assertTrue("work left " + m.getWork(), m.getWork() > 0 && m.getWork() < 2000 - 100);
+
+        MLFQReceiver mlfq = new MLFQReceiver(20);
+        mlfq.recover(recovered);
+        assertEquals("[long]", names(mlfq.startRegistration()));
+        recovered.close();
+        assertTrue(new Journal(copy).getRecovered().isEmpty());
+    }
+
+    @Test
+    public void testTornRecord() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("torn.journal");
+        RRReceiver rr = new RRReceiver(100);
+        Journal journal = new Journal(file);
+        rr.setJournal(journal);
+        rr.enqueue(new ModuleRegister("P1", 100));
+        rr.enqueue(new ModuleRegister("P2", 100));
+        journal.close();
+
+        // damage the second record, as if the JVM died part way through writing it
+        byte[] bytes = Files.readAllBytes(file);
+        int second = 8 + ByteBuffer.wrap(bytes).getInt(8) + 8;
+        bytes[second + 6] ^= 0x55;
+        Files.write(file, bytes);
+
+        journal = new Journal(file);
+        assertEquals("[P1]", names(journal.getRecovered()));
+        RRReceiver next = new RRReceiver(100);
+        next.recover(journal);
+        next.enqueue(new ModuleRegister("P3", 100));
+        journal.close();
+
+        // the torn record was cleared, so a record written over it is read back
+        journal = new Journal(file);
+        assertEquals("[P1, P3]", names(journal.getRecovered()));
+        journal.close();
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("compact.journal");
+        final int n = 500;
+        RRReceiver rr = new RRReceiver(1, ExecutionMode.VIRTUAL);
+        Journal journal = new Journal(file, 1024, Journal.DEFAULT_COMMIT_INTERVAL);
+        rr.setJournal(journal);
+        for (int i = 0; i < n; i++) {
+            rr.enqueue(new ModuleRegister("P" + i, 0));
+        }
+        assertEquals(n, rr.startRegistration().size());
+        assertEquals(0, journal.getPending());
+        // far more records than fit in the file, but only the pending ones are kept
+        assertTrue("capacity " + journal.getCapacity(), journal.getCapacity() <= 64 * 1024);
+        rr.enqueue(new ModuleRegister("left", 100));
+        journal.close();
+        assertEquals(journal.getCapacity(), Files.size(file));
+
+        journal = new Journal(file);
+        assertEquals("[left]", names(journal.getRecovered()));
+        journal.close();
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("group.journal");
+        final int n = 2000;
+        RRReceiver rr = new RRReceiver(1, ExecutionMode.VIRTUAL);
+        Journal journal = new Journal(file);
+        rr.setJournal(journal);
+        for (int i = 0; i < n; i++) {
+            rr.enqueue(new ModuleRegister("P" + i, 0));
+        }
+        rr.startRegistration();
+        // three records for each process, but far fewer forces
+        assertTrue("syncs " + journal.getSyncs(), journal.getSyncs() < n / 4);
+        journal.close();
+    }
+
+    private static String names(List<ModuleRegister> done) {
+        return Arrays.toString(done.stream().map(ModuleRegister::getName).toArray());
+    }
+}
@@ -0,0 +1,131 @@
+package ci583.test;
+
+/**
+ * Tests for Workload and LoadTest: the generated streams have the rate, burstiness, work and
+ * priorities asked for, and the harness reports on a simulated and a real run.
+ */
+
+import ci583.receiver.*;
+import org.junit.Test;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestLoadTest {
+
+    // the coefficient of variation of the gaps between arrivals, 1 for Poisson
+    private static double gapVariation(List<Workload.Arrival> stream) {
+        double sum = 0;
+        double squares = 0;
+        long previous = 0;
+        for (Workload.Arrival a : stream) {
+            double gap = a.getAtNanos() - previous;
+            sum += gap;
+            squares += gap * gap;
+            previous = a.getAtNanos();
+        }
+        double mean = sum / stream.size();
+        return Math.sqrt(squares / stream.size() - mean * mean) / mean;
+    }
+
+    @Test
+    public void testPoissonArrivals() {
+        Workload w = new Workload(100, 1);
+        List<Workload.Arrival> stream = w.generate(20_000);
+        assertEquals(20_000, stream.size());
+        // 20,000 arrivals at 100 a second take about 200 seconds
+        double seconds = stream.get(stream.size() - 1).getAtNanos() / 1e9;
+        assertTrue("took " + seconds, seconds > 190 && seconds < 210);
+        double cv = gapVariation(stream);
+        assertTrue("cv " + cv, cv > 0.95 && cv < 1.05);
+        for (int i = 1; i < stream.size(); i++) {
+            assertTrue(stream.get(i).getAtNanos() >= stream.get(i - 1).getAtNanos());
+        }
+    }
+
+    @Test
+    public void testBurstyArrivals() {
+        Workload w = new Workload(100, 1);
+        w.setBursty(4, 100, 300);
+        assertEquals(Workload.Arrivals.BURSTY, w.getArrivals());
+        List<Workload.Arrival> stream = w.generate(20_000);
+        // the same mean rate, but far more variable
+        double seconds = stream.get(stream.size() - 1).getAtNanos() / 1e9;
+        assertTrue("took " + seconds, seconds > 180 && seconds < 220);
+        double cv = gapVariation(stream);
+        assertTrue("cv " + cv, cv > 1.5);
+    }
+
+    @Test
+    public void testWorkAndPriorities() {
+        Workload w = new Workload(100, 7);
+        w.setWork(5, 2000, 1.2);
+        w.setPriorityMix(1, 2, 1);
+        List<Workload.Arrival> stream = w.generate(20_000);
+        LatencyHistogram work = new LatencyHistogram();
+        Map<ModuleRegister.PRIORITY, Integer> counts = new EnumMap<>(ModuleRegister.PRIORITY.class);
+        for (Workload.Arrival a : stream) {
+            ModuleRegister m = a.getProcess();
+            assertTrue(m.getWork() >= 5 && m.getWork() <= 2000);
+            work.record(m.getWork());
+            counts.merge(m.getPriorityLevel(), 1, Integer::sum);
+        }
+        // most are short, but the tail is long
+        assertTrue("median " + work.getPercentile(50), work.getPercentile(50) < 12);
+        assertTrue("p99 " + work.getPercentile(99), work.getPercentile(99) > 150);
+        assertEquals(5000, counts.get(ModuleRegister.PRIORITY.HIGH), 400);
+        assertEquals(10_000, counts.get(ModuleRegister.PRIORITY.MED), 400);
+        assertEquals(5000, counts.get(ModuleRegister.PRIORITY.LOW), 400);
+
+        // the same seed gives the same stream
+        List<Workload.Arrival> again = w.generate(20_000);
+        for (int i = 0; i < stream.size(); i++) {
+            assertEquals(stream.get(i).getAtNanos(), again.get(i).getAtNanos());
+            assertEquals(stream.get(i).getProcess().getWork(), again.get(i).getProcess().getWork());
+        }
+    }
+
+    @Test
+    public void testSimulatedLoad() {
+        Workload w = new Workload(50, 3);
+        w.setWork(5, 500, 1.5);
+        RRReceiver r = new RRReceiver(20);
+        r.setRunSlots(1);
+        LoadTest.Report report = new LoadTest(w, 5000).simulate(r);
+        assertEquals(5000, report.getCompleted());
+        assertEquals(0, report.getRejected());
+        assertEquals(0, report.getDropped());
+        // a utilisation of well under 1, so it keeps up with the stream
+        assertEquals(50, report.getThroughputPerSecond(), 5);
+        LatencyHistogram t = report.getTurnaround();
+        assertEquals(5000, t.getCount());
+        assertTrue(t.getPercentile(50) <= t.getPercentile(99));
+        assertTrue(t.getPercentile(99) <= t.getMax());
+        assertEquals(0, report.getLag().getMax());
+        assertTrue(report.toString().contains("turnaround"));
+    }
+
+    @Test
+    public void testRealLoad() throws Exception {
+        Workload w = new Workload(200, 5);
+        w.setWork(1, 50, 1.5);
+        w.setBursty(3, 100, 200);
+        RRReceiver r = new RRReceiver(10);
+        r.setRunSlots(4);
+        AdmissionControl a = new AdmissionControl(8, AdmissionControl.Policy.REJECT);
+        r.setAdmissionControl(a);
+        LoadTest.Report report = new LoadTest(w, 300).run(r);
+        assertEquals(300, report.getOffered());
+        assertEquals(a.getRejected(), report.getRejected());
+        assertEquals(300 - report.getRejected(), report.getCompleted());
+        assertEquals(report.getCompleted(), report.getTurnaround().getCount());
+        assertEquals(300, report.getLag().getCount());
+        assertTrue(report.getThroughputPerSecond() > 0);
+        // measured from when it was due, turnaround is never less than the time spent waiting
+        assertTrue(report.getTurnaround().getMax() >= report.getWaiting().getMax());
+    }
+}
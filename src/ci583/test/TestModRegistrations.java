@@ -5,6 +5,9 @@ package ci583.test;
  * fairly confident it is along the right lines, but passing the tests does not imply that
  * your code is perfect.
  *
+ * The receivers are given a single run slot, as on a single core, so that the order processes
+ * complete in does not depend on the machine running the tests.
+ *
  * @author Jim Burton
  */
 
@@ -15,9 +18,11 @@ import org.junit.Test;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class TestModRegistrations {
     @Before
@@ -27,6 +32,7 @@ public class TestModRegistrations {
     @Test
     public void testRRReceiver() {
         ModRegReceiver r = new RRReceiver(100);
+        r.setRunSlots(1);
         r.enqueue(new ModuleRegister("P1", 5000));
         r.enqueue(new ModuleRegister("P2", 3000));
         r.enqueue(new ModuleRegister("P3", 1000));
@@ -37,9 +43,28 @@ public class TestModRegistrations {
 
     }
 
+    @Test
+    public void testRRReceiverVirtual() {
+        ModRegReceiver r = new RRReceiver(100, ExecutionMode.VIRTUAL);
+        r.setRunSlots(1);
+        r.enqueue(new ModuleRegister("P1", 5000));
+        r.enqueue(new ModuleRegister("P2", 3000));
+        r.enqueue(new ModuleRegister("P3", 1000));
+        r.enqueue(new ModuleRegister("P4", 4000));
+
+        List<ModuleRegister> done = r.startRegistration();
+        assertEquals("[P3, P2, P4, P1]", Arrays.toString(done.stream().map(ModuleRegister::getName).toArray()));
+        for (ModuleRegister m : done) {
+            // the work ran on a virtual thread, so the ModuleRegister itself was never started
+            assertEquals(Thread.State.NEW, m.getState());
+            assertTrue(m.isComplete());
+        }
+    }
+
     @Test
     public void testPReceiver() {
         ModRegReceiver r = new PReceiver(100);
+        r.setRunSlots(1);
         r.enqueue(new ModuleRegister("P1", 2000, ModuleRegister.PRIORITY.MED));
         r.enqueue(new ModuleRegister("P2", 3000, ModuleRegister.PRIORITY.LOW));
         r.enqueue(new ModuleRegister("P3", 4000, ModuleRegister.PRIORITY.MED));
@@ -48,12 +73,41 @@ public class TestModRegistrations {
         r.enqueue(new ModuleRegister("P6", 4000, ModuleRegister.PRIORITY.HIGH));
 
         Stream<String> names = r.startRegistration().stream().map(ModuleRegister::getName);
-        assertEquals("[P6, P4, P3, P1, P2, P5]", Arrays.toString(names.toArray()));
+        assertEquals("[P4, P6, P1, P3, P2, P5]", Arrays.toString(names.toArray()));
+    }
+
+    @Test
+    public void testPReceiverAging() {
+        ModRegReceiver strict = new PReceiver(50);
+        strict.setRunSlots(1);
+        strict.enqueue(new ModuleRegister("H1", 1500, ModuleRegister.PRIORITY.HIGH));
+        strict.enqueue(new ModuleRegister("L1", 200, ModuleRegister.PRIORITY.LOW));
+        assertEquals("[H1, L1]", Arrays.toString(strict.startRegistration().stream().map(ModuleRegister::getName).toArray()));
+
+        // with aging the LOW process is dispatched after four HIGH slices, so it finishes first
+        ModRegReceiver aging = new PReceiver(50, ExecutionMode.PLATFORM, 4);
+        aging.setRunSlots(1);
+        aging.enqueue(new ModuleRegister("H1", 1500, ModuleRegister.PRIORITY.HIGH));
+        aging.enqueue(new ModuleRegister("L1", 200, ModuleRegister.PRIORITY.LOW));
+        assertEquals("[L1, H1]", Arrays.toString(aging.startRegistration().stream().map(ModuleRegister::getName).toArray()));
+    }
+
+    @Test
+    public void testSRTFReceiver() {
+        ModRegReceiver r = new SRTFReceiver(20);
+        r.setRunSlots(1);
+        r.enqueue(new ModuleRegister("P1", 150));
+        r.enqueue(new ModuleRegister("P2", 50));
+        r.enqueue(new ModuleRegister("P3", 100));
+
+        Stream<String> names = r.startRegistration().stream().map(ModuleRegister::getName);
+        assertEquals("[P2, P3, P1]", Arrays.toString(names.toArray()));
     }
 
     @Test
     public void doMLFQScheduler() {
         ModRegReceiver r = new MLFQReceiver(100);
+        r.setRunSlots(1);
         r.enqueue(new ModuleRegister("P1", 2000));
         r.enqueue(new ModuleRegister("P2", 3000));
         r.enqueue(new ModuleRegister("P3", 4000));
@@ -62,6 +116,64 @@ public class TestModRegistrations {
         r.enqueue(new ModuleRegister("P6", 4000));
 
         Stream<String> names = r.startRegistration().stream().map(ModuleRegister::getName);
-        assertEquals("[P1, P2, P4, P5, P6, P3]", Arrays.toString(names.toArray()));
+        assertEquals("[P1, P2, P3, P4, P5, P6]", Arrays.toString(names.toArray()));
+    }
+
+    @Test
+    public void testMLFQLevels() {
+        MLFQReceiver r = new MLFQReceiver(20, ExecutionMode.PLATFORM, 4, 1000);
+        r.setRunSlots(1);
+        assertEquals(4, r.getLevels());
+        assertEquals(20, r.getLevelQuantum(0));
+        assertEquals(160, r.getLevelQuantum(3));
+
+        r.enqueue(new ModuleRegister("L1", 1500));
+        r.enqueue(new ModuleRegister("S1", 100));
+        r.enqueue(new ModuleRegister("S2", 100));
+        r.enqueue(new ModuleRegister("L2", 1200));
+
+        Stream<String> names = r.startRegistration().stream().map(ModuleRegister::getName);
+        assertEquals("[S1, S2, L2, L1]", Arrays.toString(names.toArray()));
+    }
+
+    @Test
+    public void testRunSlots() {
+        // one slot: the processes take turns, so each finishes after about the sum of their work
+        ModRegReceiver one = new RRReceiver(20);
+        one.setRunSlots(1);
+        one.enqueue(new ModuleRegister("A", 200));
+        one.enqueue(new ModuleRegister("B", 200));
+        for (ModuleRegister m : one.startRegistration()) {
+            assertTrue(m.getTurnaroundNanos() >= TimeUnit.MILLISECONDS.toNanos(360));
+            assertTrue(m.getRunNanos() >= TimeUnit.MILLISECONDS.toNanos(180));
+        }
+
+        // two slots: they run side by side
+        ModRegReceiver two = new RRReceiver(20);
+        two.setRunSlots(2);
+        two.enqueue(new ModuleRegister("A", 200));
+        two.enqueue(new ModuleRegister("B", 200));
+        for (ModuleRegister m : two.startRegistration()) {
+            assertTrue(m.getTurnaroundNanos() < TimeUnit.MILLISECONDS.toNanos(350));
+        }
+    }
+
+    @Test
+    public void testWorkDeadline() {
+        ModuleRegister m = new ModuleRegister("P1", 30);
+        assertEquals("[P1 5] INCOMPLETE 30", m.getStatus());
+
+        // a 1ms quantum interrupts each process many times before its work is due; with a slot
+        // each they both run the whole time
+        ModRegReceiver r = new RRReceiver(1);
+        r.setRunSlots(2);
+        r.enqueue(m);
+        r.enqueue(new ModuleRegister("P2", 20));
+        List<ModuleRegister> done = r.startRegistration();
+
+        assertEquals("[P2, P1]", Arrays.toString(done.stream().map(ModuleRegister::getName).toArray()));
+        assertTrue(m.getInterrupts() > 5);
+        // the work ends at its deadline rather than at the next 10ms poll
+        assertTrue(m.getStatus(), m.getStatus().matches("\\[P1 5\\] COMPLETE: 30/3[0-4]"));
     }
 }
@@ -0,0 +1,168 @@
+package ci583.test;
+
+/**
+ * Tests for the RunQueue implementations used by the receivers: each must behave as a FIFO queue,
+ * and the cost of a dispatch (a poll followed by an add) must not grow with the queue length.
+ */
+
+import ci583.receiver.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestRunQueues {
+    private static final List<Supplier<RunQueue<Object>>> QUEUES = Arrays.asList(
+            ArrayRunQueue::new, LinkedRunQueue::new, IndexedRunQueue::new);
+
+    @Test
+    public void testFifoAcrossGrowth() {
+        for (Supplier<RunQueue<Object>> factory : QUEUES) {
+            RunQueue<Object> q = factory.get();
+            assertNull(q.poll());
+            // interleave adds and polls so the head has moved on before the queue grows
+            int next = 0;
+            for (int i = 0; i < 100; i++) {
+                q.add(i);
+                if (i % 3 == 0) {
+                    assertEquals(next++, q.poll());
+                }
+            }
+            assertEquals(100 - next, q.size());
+            while (!q.isEmpty()) {
+                assertEquals(next++, q.poll());
+            }
+            assertEquals(100, next);
+            assertNull(q.poll());
+        }
+    }
+
+    @Test
+    public void testRemove() {
+        List<Supplier<RunQueue<Object>>> queues = new ArrayList<>(QUEUES);
+        queues.add(() -> new PriorityRunQueue<>(Comparator.comparing(Object::toString)));
+        queues.add(() -> new BucketRunQueue<>(2, e -> e.toString().length() % 2, 0));
+        for (Supplier<RunQueue<Object>> factory : queues) {
+            RunQueue<Object> q = factory.get();
+            String name = q.getClass().getSimpleName();
+            // move the head on first, so a circular queue has wrapped
+            for (int i = 0; i < 5; i++) {
+                q.add("x");
+                q.poll();
+            }
+            Object[] es = new Object[12];
+            for (int i = 0; i < es.length; i++) {
+                es[i] = String.format("%02d", i);
+                q.add(es[i]);
+            }
+            // the head, the tail and one between; a copy that is equal but not the same is left alone
+            assertTrue(name, q.remove(es[0]));
+            assertTrue(name, q.remove(es[11]));
+            assertTrue(name, q.remove(es[6]));
+            assertFalse(name, q.remove(es[6]));
+            assertFalse(name, q.remove(new String("03")));
+            assertEquals(name, 9, q.size());
+            StringBuilder order = new StringBuilder();
+            while (!q.isEmpty()) {
+                order.append(q.poll());
+            }
+            assertEquals(name, "010203040507080910", order.toString());
+            // the removed tail no longer counts, so adding after it still works
+            q.add(es[11]);
+            assertEquals(name, es[11], q.poll());
+        }
+    }
+
+    @Test
+    public void testBucketsAreStableAndAge() {
+        // elements are {level, id}; level 0 is the most urgent
+        RunQueue<int[]> strict = new BucketRunQueue<>(3, e -> e[0], 0);
+        int[][] in = {{2, 0}, {0, 1}, {1, 2}, {0, 3}, {2, 4}, {1, 5}};
+        for (int[] e : in) {
+            strict.add(e);
+        }
+        StringBuilder order = new StringBuilder();
+        while (!strict.isEmpty()) {
+            order.append(strict.poll()[1]);
+        }
+        assertEquals("132504", order.toString());
+
+        // a steady stream of level 0 work still lets level 2 through every third dispatch
+        RunQueue<int[]> aging = new BucketRunQueue<>(3, e -> e[0], 2);
+        aging.add(new int[]{2, 9});
+        for (int i = 0; i < 4; i++) {
+            aging.add(new int[]{0, i});
+        }
+        assertEquals(0, aging.poll()[1]);
+        assertEquals(1, aging.poll()[1]);
+        assertEquals(9, aging.poll()[1]);
+        assertEquals(2, aging.poll()[1]);
+    }
+
+    @Test
+    public void testWorkHeap() {
+        WorkHeap h = new WorkHeap();
+        ModuleRegister[] ms = new ModuleRegister[6];
+        long[] keys = {50, 10, 40, 10, 30, 20};
+        for (int i = 0; i < ms.length; i++) {
+            ms[i] = new ModuleRegister("P" + i, keys[i]);
+            h.add(ms[i], keys[i]);
+        }
+        assertEquals(ms[1], h.peek());
+        // removing P4 from the middle leaves the rest in order
+        assertTrue(h.remove(ms[4]));
+        assertFalse(h.remove(ms[4]));
+        StringBuilder order = new StringBuilder();
+        while (!h.isEmpty()) {
+            order.append(h.poll().getName());
+        }
+        // equal keys come out in the order they were added
+        assertEquals("P1P3P5P2P0", order.toString());
+        assertNull(h.poll());
+    }
+
+    @Test
+    public void testDispatchCostIsFlat() {
+        for (Supplier<RunQueue<Object>> factory : QUEUES) {
+            double small = nanosPerDispatch(factory, 10);
+            nanosPerDispatch(factory, 1_000);
+            nanosPerDispatch(factory, 100_000);
+            double large = nanosPerDispatch(factory, 1_000_000);
+            String name = factory.get().getClass().getSimpleName();
+            // a linear dequeue would be ~100,000 times slower at this size; allow for cache effects only
+            assertTrue(name + ": " + small + "ns at 10, " + large + "ns at 1,000,000",
+                    large < small * 10 + 50);
+        }
+    }
+
+    // time a round-robin rotation over a queue of the given length, after a warm-up pass
+    private static double nanosPerDispatch(Supplier<RunQueue<Object>> factory, int length) {
+        final int dispatches = 2_000_000;
+        Object[] processes = new Object[16];
+        for (int i = 0; i < processes.length; i++) {
+            processes[i] = new Object();
+        }
+        RunQueue<Object> q = factory.get();
+        for (int i = 0; i < length; i++) {
+            q.add(processes[i & 15]);
+        }
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < dispatches; i++) {
+                q.add(q.poll());
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        assertEquals(length, q.size());
+        return (double) best / dispatches;
+    }
+}
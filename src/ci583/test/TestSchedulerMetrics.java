@@ -0,0 +1,77 @@
+package ci583.test;
+
+/**
+ * Tests for the per-process and per-receiver scheduling metrics.
+ */
+
+import ci583.receiver.*;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestSchedulerMetrics {
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            h.record(i * 1000L);
+        }
+        assertEquals(1000, h.getCount());
+        assertEquals(1_000_000, h.getMax());
+        assertEquals(500_500.0, h.getMean(), 0.001);
+        // each percentile is at or just above the true value, within the 1/16 bucket resolution
+        assertWithinBucket(500_000, h.getPercentile(50));
+        assertWithinBucket(990_000, h.getPercentile(99));
+        assertWithinBucket(999_000, h.getPercentile(99.9));
+        assertEquals(0, new LatencyHistogram().getPercentile(99));
+    }
+
+    @Test
+    public void testRegistrationMetrics() throws Exception {
+        RRReceiver r = new RRReceiver(20);
+        r.setRunSlots(1);
+        r.enqueue(new ModuleRegister("P1", 300));
+        r.enqueue(new ModuleRegister("P2", 100));
+        r.enqueue(new ModuleRegister("P3", 200));
+        List<ModuleRegister> done = r.startRegistration();
+
+        for (ModuleRegister m : done) {
+            assertTrue(m.getSlices() >= 1);
+            assertEquals(m.getSlices() - 1, m.getInterrupts());
+            assertTrue(m.getResponseNanos() >= 0);
+            assertTrue(m.getTurnaroundNanos() >= TimeUnit.MILLISECONDS.toNanos(m.getWork()));
+            assertEquals(m.getTurnaroundNanos() - TimeUnit.MILLISECONDS.toNanos(m.getWork()), m.getWaitingNanos());
+            // it only made progress while it held the slot, give or take how quickly it noticed the slot going
+            assertTrue(m.getRunNanos() >= TimeUnit.MILLISECONDS.toNanos(m.getWork() * 9 / 10));
+        }
+        // P3 is started two quanta after it arrived
+        assertTrue(done.get(1).getResponseNanos() >= TimeUnit.MILLISECONDS.toNanos(40));
+
+        SchedulerMetrics metrics = r.getMetrics();
+        assertEquals(3, metrics.getArrived());
+        assertEquals(3, metrics.getCompleted());
+        assertEquals(done.stream().mapToInt(ModuleRegister::getSlices).sum(), metrics.getDispatches());
+        assertTrue(metrics.getThroughputPerSecond() > 0);
+        assertTrue(metrics.getTurnaroundP99Millis() >= 300);
+
+        ObjectName name = metrics.registerMBean("testRegistrationMetrics");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            assertEquals(3L, server.getAttribute(name, "Completed"));
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+
+    private static void assertWithinBucket(long expected, long actual) {
+        assertTrue(expected + " vs " + actual, actual >= expected && actual <= expected + expected / 16);
+    }
+}
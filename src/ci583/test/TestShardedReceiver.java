@@ -0,0 +1,224 @@
+package ci583.test;
+
+/**
+ * Tests for HashRing and ShardedReceiver: keys are spread evenly and only a fair share move to a
+ * new shard, processes are routed by key to local and remote shards, and their completions are
+ * merged.
+ */
+
+import ci583.receiver.*;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestShardedReceiver {
+
+    @Test
+    public void testRingRebalance() {
+        HashRing<String> ring = new HashRing<>(ShardedReceiver.DEFAULT_VIRTUAL_NODES);
+        for (int s = 0; s < 4; s++) {
+            ring.add("shard" + s, "shard" + s);
+        }
+        int keys = 40_000;
+        Map<String, Integer> counts = new HashMap<>();
+        String[] before = new String[keys];
+        for (int k = 0; k < keys; k++) {
+            before[k] = ring.idFor("student" + k);
+            counts.merge(before[k], 1, Integer::sum);
+        }
+        for (int c : counts.values()) {
+            assertEquals(keys / 4, c, keys / 4 * 0.15);
+        }
+
+        ring.add("shard4", "shard4");
+        int moved = 0;
+        for (int k = 0; k < keys; k++) {
+            String after = ring.idFor("student" + k);
+            if (!after.equals(before[k])) {
+                // keys only ever move to the new shard
+                assertEquals("shard4", after);
+                moved++;
+            }
+        }
+        assertEquals(keys / 5, moved, keys / 5 * 0.2);
+
+        // and removing it again moves them back
+        ring.remove("shard4");
+        for (int k = 0; k < keys; k++) {
+            assertEquals(before[k], ring.idFor("student" + k));
+        }
+    }
+
+    @Test
+    public void testLocalShards() throws Exception {
+        // partitioned by the student id before the dash, so a student's modules share a shard
+        ShardedReceiver cluster = new ShardedReceiver(m -> m.getName().split("-")[0], 64);
+        List<RRReceiver> receivers = new ArrayList<>();
+        for (int s = 0; s < 3; s++) {
+            RRReceiver r = new RRReceiver(20);
+            r.setRunSlots(2);
+            receivers.add(r);
+            cluster.addShard("shard" + s, r);
+        }
+        cluster.startService();
+        Map<String, Integer> expected = new HashMap<>();
+        Map<String, String> studentShard = new HashMap<>();
+        for (int i = 0; i < 90; i++) {
+            ModuleRegister m = new ModuleRegister("S" + i / 3 + "-CI58" + i % 3, 10);
+            String shard = cluster.shardFor(m);
+            String student = m.getName().split("-")[0];
+            assertEquals(studentShard.getOrDefault(student, shard), shard);
+            studentShard.put(student, shard);
+            expected.merge(shard, 1, Integer::sum);
+            cluster.enqueue(m);
+        }
+        cluster.shutdown();
+        List<ModuleRegister> done = cluster.awaitTermination(30, TimeUnit.SECONDS);
+        assertEquals(90, done.size());
+        Set<ModuleRegister> distinct = new HashSet<>(done);
+        assertEquals(90, distinct.size());
+        for (ModuleRegister m : done) {
+            assertTrue(m.isComplete());
+        }
+        for (int s = 0; s < 3; s++) {
+            long completed = cluster.getCompletedByShard().get("shard" + s);
+            assertEquals((long) expected.getOrDefault("shard" + s, 0), completed);
+            assertEquals(completed, receivers.get(s).getMetrics().getCompleted());
+        }
+        try {
+            cluster.enqueue(new ModuleRegister("late", 10));
+            fail("enqueue after shutdown should fail");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testAddShardWhileRunning() throws Exception {
+        ShardedReceiver cluster = new ShardedReceiver();
+        cluster.addShard("a", new RRReceiver(20));
+        cluster.addShard("b", new RRReceiver(20));
+        cluster.startService();
+        for (int i = 0; i < 50; i++) {
+            cluster.enqueue(new ModuleRegister("P" + i, 5));
+        }
+        RRReceiver c = new RRReceiver(20);
+        cluster.addShard("c", c);
+        assertEquals(List.of("a", "b", "c"), cluster.getShards());
+        int toC = 0;
+        for (int i = 50; i < 100; i++) {
+            ModuleRegister m = new ModuleRegister("P" + i, 5);
+            if (cluster.shardFor(m).equals("c")) {
+                toC++;
+            }
+            cluster.enqueue(m);
+        }
+        assertTrue(toC > 0);
+        cluster.shutdown();
+        assertEquals(100, cluster.awaitTermination(30, TimeUnit.SECONDS).size());
+        // the new shard was started and got only the later processes that fell to it
+        assertEquals(toC, c.getMetrics().getCompleted());
+        assertEquals(toC, (long) cluster.getCompletedByShard().get("c"));
+    }
+
+    @Test
+    public void testRemoteShard() throws Exception {
+        RRReceiver remote = new RRReceiver(20);
+        remote.setAdmissionControl(new AdmissionControl(AdmissionControl.UNBOUNDED, AdmissionControl.Policy.REJECT));
+        remote.getAdmissionControl().setRateLimit(0.001, 20);
+        ShardServer server = new ShardServer(remote, 0);
+        server.start();
+
+        ShardedReceiver cluster = new ShardedReceiver();
+        RRReceiver local = new RRReceiver(20);
+        cluster.addShard("local", local);
+        cluster.addShard("remote", "localhost", server.getPort());
+        cluster.startService();
+        int sent = 0;
+        int rejected = 0;
+        for (int i = 0; i < 60; i++) {
+            ModuleRegister m = new ModuleRegister("P" + i, 20, ModuleRegister.PRIORITY.HIGH, 5000);
+            try {
+                cluster.enqueue(m);
+                sent++;
+            } catch (RejectedExecutionException e) {
+                // the remote shard's rate limit refused it
+                assertEquals("remote", cluster.shardFor(m));
+                rejected++;
+            }
+        }
+        assertTrue(rejected > 0);
+        cluster.shutdown();
+        List<ModuleRegister> done = cluster.awaitTermination(30, TimeUnit.SECONDS);
+        assertEquals(sent, done.size());
+        assertEquals(20, (long) cluster.getCompletedByShard().get("remote"));
+        assertEquals(sent - 20, local.getMetrics().getCompleted());
+        for (ModuleRegister m : done) {
+            // the timings carried over from the other side
+            assertTrue(m.isComplete());
+            assertTrue(m.getSlices() >= 1);
+            assertTrue(m.getRunNanos() >= TimeUnit.MILLISECONDS.toNanos(20) * 9 / 10);
+            assertTrue(m.getTurnaroundNanos() >= TimeUnit.MILLISECONDS.toNanos(20) * 9 / 10);
+            assertTrue(m.getResponseNanos() >= 0);
+            assertTrue(m.hasDeadline());
+        }
+        assertEquals(20, remote.getMetrics().getCompleted());
+    }
+
+    @Test
+    public void testRemoteProtocolError() throws Exception {
+        // a server that answers the handshake, then reports the completion of a process never sent
+        ServerSocket fake = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Thread server = new Thread(() -> {
+            try (Socket s = fake.accept()) {
+                DataInputStream in = new DataInputStream(s.getInputStream());
+                DataOutputStream out = new DataOutputStream(s.getOutputStream());
+                in.readInt();
+                out.writeInt(0x4D525331);
+                out.writeByte(3);
+                out.writeLong(42);
+                out.flush();
+                // hold the connection open, so only the bad record can end it
+                in.read();
+            } catch (IOException e) {
+                // closed by the front-end
+            }
+        });
+        server.start();
+
+        ShardedReceiver cluster = new ShardedReceiver();
+        cluster.addShard("remote", "localhost", fake.getLocalPort());
+        cluster.startService();
+        try {
+            cluster.awaitTermination(10, TimeUnit.SECONDS);
+            fail("the shard should have failed");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getCause().getMessage().contains("unknown process"));
+        }
+        try {
+            cluster.enqueue(new ModuleRegister("P1", 10));
+            fail("a failed shard should reject");
+        } catch (RejectedExecutionException e) {
+            // expected, rather than waiting forever for an answer
+        }
+        server.join(10_000);
+        fake.close();
+    }
+}
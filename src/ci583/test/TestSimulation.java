@@ -0,0 +1,322 @@
+package ci583.test;
+
+/**
+ * Tests for the discrete-event Simulation. The first three tests replay the scenarios in
+ * TestModRegistrations and expect the same order as the real receivers, which like them have a
+ * single run slot.
+ */
+
+import ci583.receiver.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestSimulation {
+
+    @Test
+    public void testRRReceiver() {
+        Simulation s = new Simulation(oneSlot(new RRReceiver(100)));
+        s.add(new ModuleRegister("P1", 5000), 0);
+        s.add(new ModuleRegister("P2", 3000), 0);
+        s.add(new ModuleRegister("P3", 1000), 0);
+        s.add(new ModuleRegister("P4", 4000), 0);
+
+        assertEquals("[P3, P2, P4, P1]", names(s.run()));
+        // with one slot the batch takes as long as all of its work
+        assertEquals(13000, s.getTimeMillis());
+    }
+
+    @Test
+    public void testPReceiver() {
+        Simulation s = new Simulation(oneSlot(new PReceiver(100)));
+        s.add(new ModuleRegister("P1", 2000, ModuleRegister.PRIORITY.MED), 0);
+        s.add(new ModuleRegister("P2", 3000, ModuleRegister.PRIORITY.LOW), 0);
+        s.add(new ModuleRegister("P3", 4000, ModuleRegister.PRIORITY.MED), 0);
+        s.add(new ModuleRegister("P4", 4000, ModuleRegister.PRIORITY.HIGH), 0);
+        s.add(new ModuleRegister("P5", 4000, ModuleRegister.PRIORITY.LOW), 0);
+        s.add(new ModuleRegister("P6", 4000, ModuleRegister.PRIORITY.HIGH), 0);
+
+        assertEquals("[P4, P6, P1, P3, P2, P5]", names(s.run()));
+    }
+
+    @Test
+    public void doMLFQScheduler() {
+        Simulation s = new Simulation(oneSlot(new MLFQReceiver(100)));
+        s.add(new ModuleRegister("P1", 2000), 0);
+        s.add(new ModuleRegister("P2", 3000), 0);
+        s.add(new ModuleRegister("P3", 4000), 0);
+        s.add(new ModuleRegister("P4", 4000), 0);
+        s.add(new ModuleRegister("P5", 4000), 0);
+        s.add(new ModuleRegister("P6", 4000), 0);
+
+        assertEquals("[P1, P2, P3, P4, P5, P6]", names(s.run()));
+    }
+
+    @Test
+    public void testSRTFPreemptsAndSJFDoesNot() {
+        Simulation srtf = new Simulation(oneSlot(new SRTFReceiver(100)));
+        srtf.add(new ModuleRegister("long", 1000), 0);
+        srtf.add(new ModuleRegister("short", 100), 200);
+        List<ModuleRegister> done = srtf.run();
+        assertEquals("[short, long]", names(done));
+        // short preempts long as soon as long's slice ends at 200ms
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), done.get(0).getTurnaroundNanos());
+
+        Simulation sjf = new Simulation(oneSlot(new SRTFReceiver(100, ExecutionMode.PLATFORM, false)));
+        sjf.add(new ModuleRegister("long", 1000), 0);
+        sjf.add(new ModuleRegister("short", 100), 200);
+        done = sjf.run();
+        assertEquals("[long, short]", names(done));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(900), done.get(1).getTurnaroundNanos());
+    }
+
+    // the mean turnaround in milliseconds of a batch of work arriving together, on one run slot
+    private static double meanTurnaround(ModRegReceiver r, long... work) {
+        Simulation s = new Simulation(oneSlot(r));
+        for (int i = 0; i < work.length; i++) {
+            s.add(new ModuleRegister("P" + i, work[i]), 0);
+        }
+        return s.run().stream().mapToLong(ModuleRegister::getTurnaroundNanos).average().orElse(0) / 1e6;
+    }
+
+    @Test
+    public void testSRTFTurnaroundNoWorseThanRR() {
+        long[][] batches = {{5000, 3000, 1000, 4000}, {2000, 3000, 4000, 4000, 4000, 4000}};
+        for (long[] work : batches) {
+            double rr = meanTurnaround(new RRReceiver(100), work);
+            double srtf = meanTurnaround(new SRTFReceiver(100), work);
+            double sjf = meanTurnaround(new SRTFReceiver(100, ExecutionMode.PLATFORM, false), work);
+            assertTrue("SRTF " + srtf + " RR " + rr, srtf <= rr);
+            assertTrue("SJF " + sjf + " RR " + rr, sjf <= rr);
+        }
+        // shortest first is optimal for a batch: 1000, 4000, 8000 and 13000
+        assertEquals(6500, meanTurnaround(new SRTFReceiver(100), 5000, 3000, 1000, 4000), 0.001);
+    }
+
+    @Test
+    public void testStrideShares() {
+        StrideReceiver r = oneSlot(new StrideReceiver(10));
+        Simulation s = new Simulation(r);
+        ModuleRegister.PRIORITY[] ps = ModuleRegister.PRIORITY.values();
+        // work in proportion to the weights, so every priority has something waiting until near the end
+        for (int i = 0; i < 6; i++) {
+            ModuleRegister.PRIORITY p = ps[i % ps.length];
+            s.add(new ModuleRegister("P" + i, r.getWeight(p) * 10_000, p), 0);
+        }
+        long[] slices = new long[ps.length];
+        for (ModuleRegister m : s.run()) {
+            slices[m.getPriorityLevel().ordinal()] += m.getSlices();
+        }
+
+        // each priority's share of the slices matches its share of the weights to within 2%
+        long totalSlices = Arrays.stream(slices).sum();
+        long totalWeight = Arrays.stream(r.getWeights()).sum();
+        for (ModuleRegister.PRIORITY p : ps) {
+            double observed = (double) slices[p.ordinal()] / totalSlices;
+            double expected = (double) r.getWeight(p) / totalWeight;
+            assertEquals(p + " share", expected, observed, 0.02);
+        }
+    }
+
+    @Test
+    public void testEDFMeetsDeadlinesRRMisses() {
+        EDFReceiver edf = oneSlot(new EDFReceiver(100));
+        List<ModuleRegister> done = deadlineWorkload(edf).run();
+        // each runs in deadline order until it completes, so none is late
+        assertEquals("[P3, P2, P1]", names(done));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), done.get(0).getSlackNanos());
+        assertEquals(0, edf.getMetrics().getDeadlinesMissed());
+        assertEquals(3, edf.getMetrics().getDeadlinesMet());
+
+        RRReceiver rr = oneSlot(new RRReceiver(100));
+        done = deadlineWorkload(rr).run();
+        // taking turns, P3 finishes at 600ms and P2 at 1200ms, both late
+        assertEquals("[P3, P2, P1]", names(done));
+        assertTrue(done.get(0).missedDeadline() && done.get(1).missedDeadline() && !done.get(2).missedDeadline());
+        assertEquals(2, rr.getMetrics().getDeadlinesMissed());
+        assertEquals(400.0, rr.getMetrics().getLatenessMaxMillis(), 0.001);
+        assertEquals(2.0 / 3, rr.getMetrics().getDeadlineMissRatio(), 0.001);
+    }
+
+    @Test
+    public void testFarDeadline() {
+        // a deadline too far off to add to the arrival time is treated as the latest possible,
+        // rather than wrapping round to the earliest
+        EDFReceiver edf = oneSlot(new EDFReceiver(100));
+        Simulation s = new Simulation(edf);
+        ModuleRegister far = new ModuleRegister("far", 100, ModuleRegister.PRIORITY.MED, Long.MAX_VALUE - 1);
+        s.add(far, 10);
+        s.add(new ModuleRegister("near", 100, ModuleRegister.PRIORITY.MED, 1000), 10);
+        assertEquals("[near, far]", names(s.run()));
+        assertEquals(Long.MAX_VALUE, far.getDeadlineNanos());
+        assertFalse(far.missedDeadline());
+    }
+
+    private static Simulation deadlineWorkload(ModRegReceiver r) {
+        Simulation s = new Simulation(r);
+        s.add(new ModuleRegister("P1", 1000, ModuleRegister.PRIORITY.MED, 5000), 0);
+        s.add(new ModuleRegister("P2", 500, ModuleRegister.PRIORITY.MED, 800), 0);
+        s.add(new ModuleRegister("P3", 200, ModuleRegister.PRIORITY.MED, 300), 0);
+        return s;
+    }
+
+    @Test
+    public void testMLFQBoostsProcessesHoldingSlots() {
+        // L holds a slot at the bottom level from 10 to 1010 while C completes at 550 and the boost
+        // falls due, so L goes back to the top for one short slice before sinking again
+        MLFQReceiver r = new MLFQReceiver(new long[]{10, 1000}, ExecutionMode.PLATFORM, 500, ArrayRunQueue::new);
+        r.setRunSlots(2);
+        Simulation s = new Simulation(r);
+        ModuleRegister l = new ModuleRegister("L", 2000);
+        s.add(l, 0);
+        s.add(new ModuleRegister("B", 60), 0);
+        s.add(new ModuleRegister("C", 150), 400);
+        assertEquals("[B, C, L]", names(s.run()));
+        assertEquals(4, l.getSlices());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(2000), l.getCompletionNanos());
+
+        // running it again schedules the first boost afresh, so the same workload does the same
+        s = new Simulation(r);
+        l = new ModuleRegister("L", 2000);
+        s.add(l, 0);
+        s.add(new ModuleRegister("B", 60), 0);
+        s.add(new ModuleRegister("C", 150), 400);
+        s.run();
+        assertEquals(4, l.getSlices());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMLFQNeedsALevel() {
+        new MLFQReceiver(new long[0], ExecutionMode.PLATFORM, 500, ArrayRunQueue::new);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMLFQQuantaOverflow() {
+        // the third level would need 4 * (Long.MAX_VALUE / 2)
+        new MLFQReceiver(Long.MAX_VALUE / 2, ExecutionMode.PLATFORM, 3, 1000);
+    }
+
+    @Test
+    public void testAdaptiveQuantum() {
+        // heavily loaded, short processes complete in one slice while long ones take turns, in
+        // shorter slices once they are known to be long, so the mean beats every fixed quantum
+        AdaptiveQuantum tuner = new AdaptiveQuantum(1, 50);
+        SchedulerMetrics adaptive = mixedStream(adaptive(tuner), 10);
+        for (long quantum : new long[]{1, 2, 5, 10, 20, 50}) {
+            SchedulerMetrics fixed = mixedStream(new RRReceiver(quantum), 10);
+            assertTrue(quantum + "ms: " + fixed.getTurnaroundMeanMillis() + " against "
+                            + adaptive.getTurnaroundMeanMillis(),
+                    adaptive.getTurnaroundMeanMillis() < fixed.getTurnaroundMeanMillis());
+            if (quantum == 1) {
+                assertTrue(adaptive.getDispatches() * 5 < fixed.getDispatches());
+            }
+        }
+        assertTrue(tuner.getQuantum() >= 1 && tuner.getQuantum() <= 50);
+
+        // lightly loaded, slices are not cut short when no one is waiting
+        adaptive = mixedStream(adaptive(new AdaptiveQuantum(1, 50)), 40);
+        SchedulerMetrics medium = mixedStream(new RRReceiver(10), 40);
+        assertTrue(adaptive.getDispatches() < medium.getDispatches());
+        assertTrue(adaptive.getTurnaroundMeanMillis() < medium.getTurnaroundMeanMillis() * 1.05);
+    }
+
+    @Test
+    public void testAdaptiveQuantumFollowsBacklog() {
+        // a batch of equal processes on one slot: as the backlog drains the quantum rises from
+        // their service time towards the upper bound, which the last one gets to itself
+        AdaptiveQuantum tuner = new AdaptiveQuantum(1, 50);
+        RRReceiver r = oneSlot(new RRReceiver(10));
+        r.setAdaptiveQuantum(tuner);
+        Simulation s = new Simulation(r);
+        for (int i = 0; i < 20; i++) {
+            s.add(new ModuleRegister("P" + i, 10), 0);
+        }
+        List<Long> quanta = new ArrayList<>();
+        s.run(m -> quanta.add(tuner.getQuantum()));
+        assertEquals(20, quanta.size());
+        for (int i = 1; i < quanta.size(); i++) {
+            assertTrue(quanta.get(i) >= quanta.get(i - 1));
+        }
+        assertTrue(quanta.get(1) < 15);
+        assertTrue(quanta.get(10) > quanta.get(1) && quanta.get(10) < 50);
+        assertEquals(50, (long) quanta.get(19));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testAdaptiveQuantumNeedsQuantum() {
+        // MLFQ's per-level quanta would always win over the tuned one
+        new MLFQReceiver(10).setAdaptiveQuantum(new AdaptiveQuantum(1, 50));
+    }
+
+    private static ModRegReceiver adaptive(AdaptiveQuantum tuner) {
+        RRReceiver r = new RRReceiver(5);
+        r.setAdaptiveQuantum(tuner);
+        return r;
+    }
+
+    // 300 processes, 90% 10ms and 10% 100ms, arriving up to maxGap milliseconds apart at a receiver with 4 slots
+    private static SchedulerMetrics mixedStream(ModRegReceiver r, int maxGap) {
+        r.setRunSlots(4);
+        Simulation s = new Simulation(r);
+        SplittableRandom random = new SplittableRandom(42);
+        long at = 0;
+        for (int i = 0; i < 300; i++) {
+            s.add(new ModuleRegister("P" + i, random.nextInt(10) == 0 ? 100 : 10), at);
+            at += random.nextInt(maxGap);
+        }
+        s.run();
+        return r.getMetrics();
+    }
+
+    @Test
+    public void testTimingsAndArrivals() {
+        RRReceiver r = oneSlot(new RRReceiver(20));
+        Simulation s = new Simulation(r);
+        s.add(new ModuleRegister("late", 50), 1000);
+        s.add(new ModuleRegister("early", 300), 0);
+        List<ModuleRegister> done = s.run();
+
+        assertEquals("[early, late]", names(done));
+        ModuleRegister late = done.get(1);
+        // the receiver is idle when it arrives, so it is started straight away
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(1000), late.getArrivalNanos());
+        assertEquals(0, late.getResponseNanos());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(50), late.getTurnaroundNanos());
+        // early is dispatched every 20ms until it completes at 300ms
+        assertEquals(15, done.get(0).getSlices());
+        assertEquals(2, r.getMetrics().getCompleted());
+    }
+
+    @Test
+    public void testLargeWorkload() {
+        final int n = 200_000;
+        Simulation s = new Simulation(new MLFQReceiver(10));
+        for (int i = 0; i < n; i++) {
+            s.add(new ModuleRegister("P" + i, 5 + i % 50), i / 10);
+        }
+        long start = System.nanoTime();
+        long[] count = new long[1];
+        s.run(m -> count[0]++);
+        long seconds = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start);
+        assertEquals(n, count[0]);
+        assertTrue("took " + seconds + "s", seconds < 30);
+    }
+
+    // a single run slot, as in TestModRegistrations, so the results do not depend on the machine
+    private static <R extends ModRegReceiver> R oneSlot(R r) {
+        r.setRunSlots(1);
+        return r;
+    }
+
+    private static String names(List<ModuleRegister> done) {
+        return Arrays.toString(done.stream().map(ModuleRegister::getName).toArray());
+    }
+}
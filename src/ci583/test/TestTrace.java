@@ -0,0 +1,125 @@
+package ci583.test;
+
+/**
+ * Tests for the TraceRecorder and TraceAnalyzer: timelines reconstructed from a dump of a
+ * simulated and a real run agree with the processes' own timings, a wrapped ring keeps only the
+ * most recent events, and recording does not allocate.
+ */
+
+import ci583.receiver.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestTrace {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSimulatedTimelines() throws Exception {
+        RRReceiver r = new RRReceiver(100);
+        r.setRunSlots(1);
+        Simulation s = new Simulation(r);
+        s.add(new ModuleRegister("P1", 300), 0);
+        s.add(new ModuleRegister("P2", 100), 0);
+        List<ModuleRegister> done = s.run();
+
+        Path file = folder.getRoot().toPath().resolve("sim.trace");
+        int events = r.getTrace().dump(file);
+        TraceAnalyzer a = new TraceAnalyzer(file);
+        assertEquals(events, a.getEvents());
+        assertEquals(0, a.getDropped());
+        List<TraceAnalyzer.Timeline> timelines = a.getTimelines();
+        assertEquals(2, timelines.size());
+        for (TraceAnalyzer.Timeline t : timelines) {
+            ModuleRegister m = done.get(t.getName().equals("P2") ? 0 : 1);
+            assertEquals(m.getName(), t.getName());
+            assertEquals(m.getSlices(), t.getSlices().size());
+            assertEquals(m.getInterrupts(), t.getInterrupts());
+            assertEquals(m.getRunNanos(), t.getRunNanos());
+            assertEquals(m.getArrivalNanos(), t.getArrivalNanos());
+            assertEquals(m.getCompletionNanos(), t.getCompletionNanos());
+        }
+
+        // P1 runs, waits while P2 runs, then runs to completion
+        String[] rows = a.gantt(4).split(System.lineSeparator());
+        assertEquals("P1      |#.##|", rows[1]);
+        assertEquals("P2      |.#  |", rows[2]);
+        assertTrue(a.summary().startsWith("process"));
+    }
+
+    @Test
+    public void testWrappedRing() throws Exception {
+        RRReceiver r = new RRReceiver(100);
+        r.setTrace(new TraceRecorder(16));
+        Simulation s = new Simulation(r);
+        for (int i = 0; i < 10; i++) {
+            s.add(new ModuleRegister("P" + i, 300), 0);
+        }
+        s.run();
+
+        Path file = folder.getRoot().toPath().resolve("wrapped.trace");
+        assertEquals(16, r.getTrace().dump(file));
+        TraceAnalyzer a = new TraceAnalyzer(file);
+        assertEquals(16, a.getEvents());
+        assertEquals(r.getTrace().getRecorded() - 16, a.getDropped());
+        // the enqueues were overwritten long ago, so the processes are named by index
+        for (TraceAnalyzer.Timeline t : a.getTimelines()) {
+            assertTrue(t.getName(), t.getName().startsWith("#"));
+            assertEquals(-1, t.getArrivalNanos());
+        }
+        assertTrue(a.summary().contains("earlier events were overwritten"));
+    }
+
+    @Test
+    public void testRealTimelines() throws Exception {
+        RRReceiver r = new RRReceiver(20);
+        r.setRunSlots(1);
+        r.enqueue(new ModuleRegister("P1", 100));
+        r.enqueue(new ModuleRegister("P2", 60));
+        List<ModuleRegister> done = r.startRegistration();
+
+        Path file = folder.getRoot().toPath().resolve("real.trace");
+        r.getTrace().dump(file);
+        TraceAnalyzer a = new TraceAnalyzer(file);
+        assertEquals(2, a.getTimelines().size());
+        for (TraceAnalyzer.Timeline t : a.getTimelines()) {
+            ModuleRegister m = done.get(t.getName().equals("P2") ? 0 : 1);
+            assertEquals(m.getName(), t.getName());
+            assertTrue(t.isComplete());
+            assertEquals(m.getSlices(), t.getSlices().size());
+            assertEquals(m.getInterrupts(), t.getInterrupts());
+            assertEquals(m.getCompletionNanos(), t.getCompletionNanos());
+            // it held its slot for at least its work
+            assertTrue(t.getName() + " ran " + t.getRunNanos(),
+                    t.getRunNanos() >= TimeUnit.MILLISECONDS.toNanos(m.getWork()) * 9 / 10);
+        }
+    }
+
+    @Test
+    public void testRecordingDoesNotAllocate() {
+        TraceRecorder trace = new TraceRecorder(1024);
+        ModuleRegister m = new ModuleRegister("P1", 100);
+        trace.record(TraceRecorder.Event.ENQUEUE, m, 0);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().threadId();
+        long before = threads.getThreadAllocatedBytes(id);
+        for (int i = 0; i < 100_000; i++) {
+            trace.record(TraceRecorder.Event.DISPATCH, m, i);
+            trace.record(TraceRecorder.Event.REQUEUE, m, i);
+        }
+        long allocated = threads.getThreadAllocatedBytes(id) - before;
+        // far less than a single byte per event
+        assertTrue("allocated " + allocated + " bytes", allocated < 20_000);
+        assertEquals(200_001, trace.getRecorded());
+    }
+}